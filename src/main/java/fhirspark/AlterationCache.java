@@ -0,0 +1,73 @@
+package fhirspark;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import fhirspark.restmodel.TherapyRecommendation;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of the therapy recommendations found per NCBI gene id. Queries for several genes are answered as
+ * union of the cached genes, so only genes that were not queried before have to be searched on the FHIR server.
+ */
+public class AlterationCache {
+
+    private final Cache<Integer, Map<String, TherapyRecommendation>> cache;
+    // incremented by every invalidation, so results of searches that overlap a write are not stored
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     *
+     * @param maximumRecommendations upper bound for the summed number of recommendations of all cached genes.
+     */
+    public AlterationCache(long maximumRecommendations) {
+        this.cache = CacheBuilder.newBuilder().maximumWeight(maximumRecommendations)
+                .weigher((Integer gene, Map<String, TherapyRecommendation> found) -> found.size() + 1).build();
+    }
+
+    /**
+     *
+     * @param genes NCBI gene ids of the queried alterations.
+     * @return recommendations by their id per gene, for the genes that are cached.
+     */
+    public Map<Integer, Map<String, TherapyRecommendation>> getAllPresent(Set<Integer> genes) {
+        return cache.getAllPresent(genes);
+    }
+
+    /**
+     *
+     * @return generation to pass to {@link #putAll(Map, long)} with the results of a search started now.
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    /**
+     * Stores the results of a search unless an invalidation happened since it was started.
+     *
+     * @param found      recommendations by their id per searched gene, empty for genes without recommendations.
+     * @param started    value of {@link #generation()} before the search was started.
+     */
+    public synchronized void putAll(Map<Integer, Map<String, TherapyRecommendation>> found, long started) {
+        if (generation.get() == started) {
+            cache.putAll(found);
+        }
+    }
+
+    /**
+     * Forgets the genes of written or deleted recommendations, including the genes the recommendations were
+     * cached for before they were changed.
+     *
+     * @param genes             NCBI gene ids of the variants of the recommendations.
+     * @param recommendationIds ids of the recommendations.
+     */
+    public synchronized void invalidate(Collection<Integer> genes, Collection<String> recommendationIds) {
+        generation.incrementAndGet();
+        cache.invalidateAll(genes);
+        cache.asMap().values()
+                .removeIf(found -> recommendationIds.stream().anyMatch(found::containsKey));
+    }
+
+}
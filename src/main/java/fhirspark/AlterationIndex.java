@@ -0,0 +1,126 @@
+package fhirspark;
+
+import fhirspark.restmodel.GeneticAlteration;
+import fhirspark.restmodel.Reference;
+import fhirspark.restmodel.TherapyRecommendation;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inverted index from NCBI gene ids to the decoded therapy recommendations whose variants refer to the gene. It
+ * mirrors the medication-efficacy Observations on the FHIR server, so recommendations by alteration can be answered
+ * without a search. Recommendations are kept by the value of their identifier, like the Observations.
+ */
+public class AlterationIndex {
+
+    private final Map<String, TherapyRecommendation> recommendations = new HashMap<String, TherapyRecommendation>();
+    private final Map<Integer, Set<String>> byGene = new HashMap<Integer, Set<String>>();
+    private volatile boolean ready;
+
+    /**
+     * Adds or replaces a recommendation that was written to the FHIR server.
+     *
+     * @param id                    value of the identifier of the medication-efficacy Observation.
+     * @param therapyRecommendation decoded recommendation, must not be modified afterwards.
+     */
+    public synchronized void put(String id, TherapyRecommendation therapyRecommendation) {
+        remove(id);
+        recommendations.put(id, therapyRecommendation);
+        for (Integer gene : genes(therapyRecommendation)) {
+            byGene.computeIfAbsent(gene, g -> new HashSet<String>()).add(id);
+        }
+    }
+
+    /**
+     * Adds a recommendation read by the initial scan unless it was already written in the meantime.
+     *
+     * @param id                    value of the identifier of the medication-efficacy Observation.
+     * @param therapyRecommendation decoded recommendation, must not be modified afterwards.
+     */
+    public synchronized void load(String id, TherapyRecommendation therapyRecommendation) {
+        if (!recommendations.containsKey(id)) {
+            put(id, therapyRecommendation);
+        }
+    }
+
+    /**
+     *
+     * @param id value of the identifier of the medication-efficacy Observation that was deleted.
+     */
+    public synchronized void remove(String id) {
+        TherapyRecommendation removed = recommendations.remove(id);
+        if (removed == null) {
+            return;
+        }
+        for (Integer gene : genes(removed)) {
+            Set<String> ids = byGene.get(gene);
+            ids.remove(id);
+            if (ids.isEmpty()) {
+                byGene.remove(gene);
+            }
+        }
+    }
+
+    /**
+     *
+     * @param entrezGeneIds NCBI gene ids of the queried alterations.
+     * @return recommendations with a variant in one of the genes.
+     */
+    public synchronized Collection<TherapyRecommendation> getTherapyRecommendations(Set<Integer> entrezGeneIds) {
+        Map<String, TherapyRecommendation> result = new LinkedHashMap<String, TherapyRecommendation>();
+        for (Integer gene : entrezGeneIds) {
+            byGene.getOrDefault(gene, Set.of()).forEach(id -> result.put(id, recommendations.get(id)));
+        }
+        return result.values();
+    }
+
+    /**
+     *
+     * @param entrezGeneIds NCBI gene ids of the queried alterations.
+     * @return publications cited by recommendations with a variant in one of the genes, once per PMID.
+     */
+    public Collection<Reference> getReferences(Set<Integer> entrezGeneIds) {
+        Map<Integer, Reference> result = new LinkedHashMap<Integer, Reference>();
+        getTherapyRecommendations(entrezGeneIds)
+                .forEach(t -> t.getReferences().forEach(reference -> result.put(reference.getPmid(), reference)));
+        return result.values();
+    }
+
+    /**
+     *
+     * @return number of indexed recommendations.
+     */
+    public synchronized int size() {
+        return recommendations.size();
+    }
+
+    /**
+     *
+     * @return true once the initial scan completed and the index can answer queries.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Marks the initial scan as completed.
+     */
+    public void setReady() {
+        this.ready = true;
+    }
+
+    private static Set<Integer> genes(TherapyRecommendation therapyRecommendation) {
+        Set<Integer> genes = new HashSet<Integer>();
+        for (GeneticAlteration g : therapyRecommendation.getReasoning().getGeneticAlterations()) {
+            if (g.getEntrezGeneId() != null) {
+                genes.add(g.getEntrezGeneId());
+            }
+        }
+        return genes;
+    }
+
+}
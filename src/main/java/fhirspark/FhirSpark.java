@@ -8,16 +8,26 @@ import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.WebResource;
 import fhirspark.resolver.HgncGeneName;
 import fhirspark.resolver.OncoKbDrug;
+import fhirspark.resolver.PubmedPublication;
+import fhirspark.resolver.ReferenceDataWatcher;
 import fhirspark.restmodel.CbioportalRest;
 import fhirspark.restmodel.Deletions;
 import fhirspark.restmodel.GeneticAlteration;
 import fhirspark.restmodel.Mtb;
 import java.io.FileInputStream;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.ws.rs.core.Cookie;
@@ -41,8 +51,17 @@ public final class FhirSpark {
     private static JsonFhirMapper jsonFhirMapper;
     private static JsonHl7v2Mapper jsonHl7v2Mapper;
     private static Settings settings;
-    private static Client client = new Client();
+    private static ResponseCache responseCache;
+    private static ValidationCache validationCache;
+    private static ResponseCompression compression;
+    private static Client client;
     private static ObjectMapper objectMapper = new ObjectMapper(new JsonFactory());
+    private static final int DRUG_SEARCH_LIMIT = 20;
+    private static final int DRUG_SEARCH_LIMIT_MAX = 100;
+    // defaults for settings files that predate the setting
+    private static final long DEFAULT_RESPONSE_CACHE_SIZE = 64L * 1024 * 1024;
+    private static final int DEFAULT_VALIDATION_CACHE_TTL = 60;
+    private static final int DEFAULT_VALIDATION_CACHE_NEGATIVE_TTL = 10;
 
     private FhirSpark() {
     }
@@ -59,15 +78,119 @@ public final class FhirSpark {
         }
         ConfigurationLoader configLoader = new ConfigurationLoader();
         settings = configLoader.loadConfiguration(settingsYaml, Settings.class);
-        HgncGeneName.initialize(settings.getHgncPath());
-        OncoKbDrug.initalize(settings.getOncokbPath());
-        jsonFhirMapper = new JsonFhirMapper(settings);
-        if (settings.getHl7v2config() != null && settings.getHl7v2config().get(0).getSendv2()) {
-            jsonHl7v2Mapper = new JsonHl7v2Mapper(settings);
+        long started = System.nanoTime();
+        SharedHttpClient httpClient = new SharedHttpClient(settings.getHttpconfig());
+        client = httpClient.getJerseyClient();
+        PubmedPublication pubmedResolver = new PubmedPublication(client, settings.getPubmedCachePath());
+
+        responseCache = new ResponseCache(
+                Objects.requireNonNullElse(settings.getResponseCacheSize(), DEFAULT_RESPONSE_CACHE_SIZE));
+        compression = new ResponseCompression(settings.getCompressionThreshold());
+        validationCache = new ValidationCache(
+                Objects.requireNonNullElse(settings.getValidationCacheTtl(), DEFAULT_VALIDATION_CACHE_TTL),
+                Objects.requireNonNullElse(settings.getValidationCacheNegativeTtl(),
+                        DEFAULT_VALIDATION_CACHE_NEGATIVE_TTL));
+
+        // The resolvers and mappers do not depend on each other, so they are initialized in parallel.
+        // Daemon threads, so a failed initializer cannot keep the JVM alive without a listening server.
+        ExecutorService startup = Executors.newFixedThreadPool(4, r -> {
+            Thread thread = new Thread(r, "startup");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            CompletableFuture<Void> hgnc = CompletableFuture.runAsync(() -> timed("HGNC resolver",
+                    () -> HgncGeneName.initialize(settings.getHgncPath())), startup);
+            CompletableFuture<Void> oncokb = CompletableFuture.runAsync(() -> timed("OncoKB resolver",
+                    () -> OncoKbDrug.initalize(settings.getOncokbPath())), startup);
+            CompletableFuture<JsonFhirMapper> fhirMapper = CompletableFuture.supplyAsync(() -> timed("FHIR mapper",
+                    () -> new JsonFhirMapper(settings, httpClient, pubmedResolver)), startup);
+            CompletableFuture<JsonHl7v2Mapper> hl7v2Mapper = CompletableFuture.completedFuture(null);
+            if (settings.getHl7v2config() != null
+                && settings.getHl7v2config().stream().anyMatch(Hl7v2config::getSendv2)) {
+                hl7v2Mapper = CompletableFuture.supplyAsync(() -> timed("HL7v2 mapper",
+                        () -> new JsonHl7v2Mapper(settings, pubmedResolver)), startup);
+            }
+            CompletableFuture.allOf(hgnc, oncokb, fhirMapper, hl7v2Mapper).join();
+            jsonFhirMapper = fhirMapper.join();
+            jsonHl7v2Mapper = hl7v2Mapper.join();
+        } finally {
+            startup.shutdown();
+        }
+
+        if (settings.getWarmupIterations() != null && settings.getWarmupIterations() > 0) {
+            timed("Warm-up", () -> jsonFhirMapper.warmUp(settings.getWarmupIterations()));
+        }
+        if (Boolean.TRUE.equals(settings.getAlterationIndex())) {
+            // queries by alteration search the FHIR server until the index is complete
+            CompletableFuture.runAsync(() -> timed("Alteration index", jsonFhirMapper::buildAlterationIndex));
+        }
+        if (Boolean.TRUE.equals(settings.getWatchReferenceData())) {
+            ReferenceDataWatcher watcher = new ReferenceDataWatcher();
+            watcher.watch(settings.getHgncPath(), HgncGeneName::initialize);
+            watcher.watch(settings.getOncokbPath(), OncoKbDrug::initalize);
+            watcher.start();
         }
+        System.out.println("Startup finished in " + (System.nanoTime() - started) / 1_000_000 + " ms");
 
         port(settings.getPort());
 
+        get("/status", (req, res) -> {
+            Map<String, Object> validation = new LinkedHashMap<String, Object>();
+            validation.put("hits", validationCache.getHits());
+            validation.put("misses", validationCache.getMisses());
+            validation.put("size", validationCache.size());
+            Map<String, Object> status = new LinkedHashMap<String, Object>();
+            status.put("validationCache", validation);
+            if (jsonHl7v2Mapper != null) {
+                List<Map<String, Object>> outboxes = new ArrayList<Map<String, Object>>();
+                for (Hl7v2Outbox target : jsonHl7v2Mapper.getOutboxes()) {
+                    Map<String, Object> outbox = new LinkedHashMap<String, Object>();
+                    outbox.put("target", target.getTarget());
+                    outbox.put("depth", target.getDepth());
+                    outbox.put("oldestMessageAge", target.getOldestAge());
+                    outbox.put("delivered", target.getDelivered());
+                    outbox.put("failed", target.getFailed());
+                    outbox.put("dropped", target.getDropped());
+                    outbox.put("lastSuccess", target.getLastSuccess());
+                    outbox.put("lastLatency", target.getLastLatency());
+                    outboxes.add(outbox);
+                }
+                status.put("hl7v2Outbox", outboxes);
+            }
+            res.status(HttpStatus.OK_200);
+            res.type("application/json");
+            return objectMapper.writeValueAsString(status);
+        });
+
+        get("/drugs", (req, res) -> {
+            String query = req.queryParams("q");
+            int limit = DRUG_SEARCH_LIMIT;
+            if (req.queryParams("limit") != null && req.queryParams("limit").matches("\\d{1,3}")) {
+                limit = Math.min(Integer.parseInt(req.queryParams("limit")), DRUG_SEARCH_LIMIT_MAX);
+            }
+            res.status(HttpStatus.OK_200);
+            res.header("Access-Control-Allow-Origin", req.headers("Origin"));
+            res.header("Vary", "Origin");
+            res.type("application/json");
+            if (query == null || query.trim().isEmpty()) {
+                return "[]";
+            }
+            return objectMapper.writeValueAsString(OncoKbDrug.search(query, limit));
+        });
+
+        get("/genes", (req, res) -> {
+            String query = req.queryParams("q");
+            res.status(HttpStatus.OK_200);
+            res.header("Access-Control-Allow-Origin", req.headers("Origin"));
+            res.header("Vary", "Origin");
+            res.type("application/json");
+            if (query == null || query.trim().isEmpty()) {
+                return "[]";
+            }
+            return objectMapper.writeValueAsString(HgncGeneName.search(query));
+        });
+
         options("/mtb/:patientId", (req, res) -> {
             res.status(HttpStatus.NO_CONTENT_204);
             res.header("Access-Control-Allow-Credentials", "true");
@@ -107,13 +230,31 @@ public final class FhirSpark {
                 res.status(HttpStatus.FORBIDDEN_403);
                 return res;
             }
-            res.status(HttpStatus.OK_200);
+            String patientId = req.params(":patientId");
+            String versionToken = jsonFhirMapper.getVersionToken(patientId);
+            String etag = "\"" + versionToken + "\"";
             res.header("Access-Control-Allow-Credentials", "true");
             res.header("Access-Control-Allow-Origin", req.headers("Origin"));
-            res.type("application/json");
             res.header("Vary", "Origin, Access-Control-Request-Headers");
-            res.body(jsonFhirMapper.toJson(req.params(":patientId")));
-            return res.body();
+            res.header("ETag", etag);
+            res.header("Cache-Control", "no-cache");
+            if (ResponseCache.matches(req.headers("If-None-Match"), etag)) {
+                res.status(HttpStatus.NOT_MODIFIED_304);
+                return "";
+            }
+            res.status(HttpStatus.OK_200);
+            res.type("application/json");
+            byte[] cached = responseCache.getIfPresent(patientId, versionToken);
+            if (cached != null) {
+                return compression.send(req, res, cached);
+            }
+            // MTBs are written while they are decoded, the cache keeps a copy for the next request
+            try (ResponseCompression.Body out = compression.open(req, res)) {
+                responseCache.stream(patientId, versionToken, out,
+                        body -> jsonFhirMapper.writeJson(patientId, body));
+                out.finish();
+            }
+            return "";
         });
 
         put("/mtb/:patientId", (req, res) -> {
@@ -129,8 +270,22 @@ public final class FhirSpark {
             res.header("Vary", "Origin, Access-Control-Request-Headers");
 
             List<Mtb> mtbs = objectMapper.readValue(req.body(), CbioportalRest.class).getMtbs();
-            jsonFhirMapper.addOrEditMtb(req.params(":patientId"), mtbs);
-            if (settings.getHl7v2config().get(0).getSendv2()) {
+            // refuse before writing to FHIR, a message dropped afterwards would leave the targets behind
+            if (jsonHl7v2Mapper != null && !jsonHl7v2Mapper.canQueue(mtbs)) {
+                res.status(HttpStatus.SERVICE_UNAVAILABLE_503);
+                return res;
+            }
+            if (settings.getDiffMode() != null && settings.getDiffMode()) {
+                String patientId = req.params(":patientId");
+                byte[] current = responseCache.get(patientId, jsonFhirMapper.getVersionToken(patientId),
+                    () -> jsonFhirMapper.toJson(patientId).getBytes(StandardCharsets.UTF_8));
+                jsonFhirMapper.addOrEditMtb(patientId, mtbs,
+                        objectMapper.readValue(current, CbioportalRest.class).getMtbs());
+            } else {
+                jsonFhirMapper.addOrEditMtb(req.params(":patientId"), mtbs);
+            }
+            responseCache.invalidate(req.params(":patientId"));
+            if (jsonHl7v2Mapper != null) {
                 jsonHl7v2Mapper.toHl7v2Oru(req.params(":patientId"), mtbs);
             }
             res.body(req.body());
@@ -150,6 +305,7 @@ public final class FhirSpark {
             res.header("Vary", "Origin, Access-Control-Request-Headers");
             Deletions deletions = objectMapper.readValue(req.body(), Deletions.class);
             jsonFhirMapper.deleteEntries(req.params(":patientId"), deletions);
+            responseCache.invalidate(req.params(":patientId"));
             res.body(req.body());
             return res.body();
         });
@@ -175,10 +331,8 @@ public final class FhirSpark {
             List<GeneticAlteration> alterations = objectMapper.readValue(req.body(),
                     new TypeReference<List<GeneticAlteration>>() {
                     });
-            res.body(
-                    objectMapper.writeValueAsString(jsonFhirMapper
-                        .getTherapyRecommendationsByAlteration(alterations)));
-            return res.body();
+            return compression.send(req, res,
+                    objectMapper.writeValueAsBytes(jsonFhirMapper.getTherapyRecommendationsByAlteration(alterations)));
         });
 
         options("/mtb/alteration/pmid", (req, res) -> {
@@ -202,34 +356,65 @@ public final class FhirSpark {
             List<GeneticAlteration> alterations = objectMapper.readValue(req.body(),
                     new TypeReference<List<GeneticAlteration>>() {
                     });
-            res.body(objectMapper.writeValueAsString(jsonFhirMapper.getPmidsByAlteration(alterations)));
-            return res.body();
+            return compression.send(req, res,
+                    objectMapper.writeValueAsBytes(jsonFhirMapper.getPmidsByAlteration(alterations)));
         });
 
     }
 
+    private static <T> T timed(String phase, Supplier<T> step) {
+        long started = System.nanoTime();
+        T result = step.get();
+        System.out.println(phase + " finished in " + (System.nanoTime() - started) / 1_000_000 + " ms");
+        return result;
+    }
+
+    private static void timed(String phase, Runnable step) {
+        timed(phase, () -> {
+            step.run();
+            return null;
+        });
+    }
+
     /**
      * Checks if the session id is authorized to access the clinical data of the patient.
+     * Decisions of cBioPortal are cached for a short time.
      *
      * @param req Incoming Java Spark Request
      * @return Boolean if the session if able to access the data
      */
     private static boolean validateRequest(Request req) {
-        String portalDomain = settings.getPortalUrl();
         String requestedStudyId = req.queryParams("studyId");
-        String validatePath = "api/studies/" + requestedStudyId + "/patients/"
-                + req.params(":patientId");
-        String requestUrl = portalDomain + validatePath;
 
         if (requestedStudyId == null) {
             System.out.println("No query parameter studyId found - returning false\n");
             return false;
         }
 
+        String sessionId = req.cookies().get("JSESSIONID");
+        String patientId = req.params(":patientId");
+        return validationCache.validate(sessionId, requestedStudyId, patientId,
+            () -> validateAtPortal(sessionId, requestedStudyId, patientId));
+    }
+
+    /**
+     * Asks cBioPortal if the session id is authorized to access the clinical data of the patient.
+     *
+     * @param sessionId JSESSIONID of the request
+     * @param studyId requested study
+     * @param patientId requested patient
+     * @return true if access is granted, false if it is denied, null if cBioPortal gave no decision
+     */
+    private static Boolean validateAtPortal(String sessionId, String studyId, String patientId) {
+        String portalDomain = settings.getPortalUrl();
+        String validatePath = "api/studies/" + studyId + "/patients/" + patientId;
+        String requestUrl = portalDomain + validatePath;
+
         WebResource webResource = client.resource(requestUrl);
         WebResource.Builder builder = webResource.getRequestBuilder();
-        builder = builder.cookie(new Cookie("JSESSIONID", req.cookies().get("JSESSIONID")));
+        builder = builder.cookie(new Cookie("JSESSIONID", sessionId));
         ClientResponse response = builder.accept("application/json").get(ClientResponse.class);
+        response.close();
 
         System.out.println(LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")));
         System.out.println("Validation request for study:");
@@ -240,7 +425,10 @@ public final class FhirSpark {
             return true;
         }
         System.out.println("Response code was: " + response.getStatus() + "\n");
-        return false;
+        if (response.getStatus() == HttpStatus.UNAUTHORIZED_401 || response.getStatus() == HttpStatus.FORBIDDEN_403) {
+            return false;
+        }
+        return null;
     }
 
     /**
@@ -0,0 +1,265 @@
+package fhirspark;
+
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.HapiContext;
+import ca.uhn.hl7v2.app.Connection;
+import ca.uhn.hl7v2.llp.LLPException;
+import ca.uhn.hl7v2.model.Message;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Persistent queue of HL7 Version 2 messages that are delivered to the configured target by a background thread.
+ * Every message is stored as a file until the target acknowledged it, so pending messages survive restarts.
+ * Each target has its own outbox directory, connection and sender thread.
+ */
+public class Hl7v2Outbox {
+
+    private static final String SUFFIX = ".hl7";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final String FAILED_SUFFIX = ".failed";
+
+    private final HapiContext context;
+    private final Hl7v2config config;
+    private final Path directory;
+    private final LinkedBlockingDeque<Path> pending = new LinkedBlockingDeque<Path>();
+    // one permit per free slot, released once a message left the outbox
+    private final Semaphore capacity;
+    private final AtomicLong sequence = new AtomicLong();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private volatile Boolean lastSuccess;
+    private volatile long lastLatency;
+    private Connection connection;
+
+    /**
+     * Opens the outbox and picks up messages left over from a previous run. Messages that were not completely
+     * written before a crash are removed.
+     *
+     * @param context HAPI context used to encode and send messages.
+     * @param config  target and outbox configuration.
+     */
+    public Hl7v2Outbox(HapiContext context, Hl7v2config config) {
+        this.context = context;
+        this.config = config;
+        this.directory = Paths.get(config.getOutboxPath()).resolve(config.getServer() + "-" + config.getPort());
+        try {
+            Files.createDirectories(directory);
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files.sorted()::iterator) {
+                    if (file.getFileName().toString().endsWith(SUFFIX)) {
+                        pending.add(file);
+                    } else if (file.getFileName().toString().endsWith(TMP_SUFFIX)) {
+                        Files.delete(file);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // leftovers may exceed a lowered capacity, new messages are accepted once they are delivered
+        this.capacity = new Semaphore(config.getOutboxCapacity() - pending.size());
+    }
+
+    /**
+     * Starts the background thread that delivers the queued messages.
+     */
+    public void start() {
+        Thread sender = new Thread(this::deliver, "hl7v2-outbox-" + config.getServer() + "-" + config.getPort());
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    /**
+     * Persists a message for later delivery. A message that does not fit into the outbox or cannot be stored is
+     * dropped and counted, the caller has already committed the data the message was created from.
+     *
+     * @param message the message to send.
+     * @return false if the message was dropped.
+     * @throws HL7Exception if the message cannot be encoded.
+     */
+    public boolean enqueue(Message message) throws HL7Exception {
+        if (!capacity.tryAcquire()) {
+            dropped.increment();
+            System.out.println("HL7v2 outbox for " + config.getServer() + " is full, message dropped");
+            return false;
+        }
+        boolean queued = false;
+        try {
+            String name = String.format("%020d-%010d", System.currentTimeMillis(), sequence.incrementAndGet());
+            Path tmp = directory.resolve(name + TMP_SUFFIX);
+            Files.write(tmp, message.encode().getBytes(StandardCharsets.UTF_8));
+            pending.add(Files.move(tmp, directory.resolve(name + SUFFIX), StandardCopyOption.ATOMIC_MOVE));
+            queued = true;
+        } catch (IOException e) {
+            dropped.increment();
+            System.out.println("Storing HL7v2 message for " + config.getServer() + " failed, message dropped: " + e);
+        } finally {
+            if (!queued) {
+                capacity.release();
+            }
+        }
+        return queued;
+    }
+
+    /**
+     *
+     * @return true if at least one more message fits into the outbox.
+     */
+    public boolean hasCapacity() {
+        return capacity.availablePermits() > 0;
+    }
+
+    /**
+     *
+     * @return number of messages waiting for delivery.
+     */
+    public int getDepth() {
+        return pending.size();
+    }
+
+    /**
+     *
+     * @return age of the oldest undelivered message in milliseconds, 0 if the outbox is empty.
+     */
+    public long getOldestAge() {
+        Path oldest = pending.peekFirst();
+        if (oldest == null) {
+            return 0;
+        }
+        return System.currentTimeMillis() - Long.parseLong(oldest.getFileName().toString().substring(0, 20));
+    }
+
+    /**
+     *
+     * @return server and port of the target.
+     */
+    public String getTarget() {
+        return config.getServer() + ":" + config.getPort();
+    }
+
+    public long getDelivered() {
+        return delivered.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     *
+     * @return outcome of the last delivery attempt, null if nothing was sent yet.
+     */
+    public Boolean getLastSuccess() {
+        return lastSuccess;
+    }
+
+    /**
+     *
+     * @return duration of the last delivery attempt in milliseconds.
+     */
+    public long getLastLatency() {
+        return lastLatency;
+    }
+
+    // any exception must not end the only sender thread, the outbox would accept messages but never deliver them
+    @SuppressWarnings("checkstyle:IllegalCatch")
+    private void deliver() {
+        long delay = config.getRetryInitialDelay();
+        while (!Thread.currentThread().isInterrupted()) {
+            Path file;
+            try {
+                file = pending.takeFirst();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            Message message;
+            try {
+                message = context.getPipeParser().parse(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+            } catch (HL7Exception | IOException | RuntimeException e) {
+                // retrying cannot help, the file is kept for inspection
+                park(file, e);
+                failed.increment();
+                continue;
+            }
+            long started = System.nanoTime();
+            try {
+                send(message);
+            } catch (HL7Exception | IOException | RuntimeException e) {
+                lastLatency = (System.nanoTime() - started) / 1_000_000;
+                lastSuccess = false;
+                failed.increment();
+                System.out.println("Sending HL7v2 message " + file.getFileName() + " to " + config.getServer()
+                        + " failed, retrying in " + delay + " ms: " + e);
+                pending.addFirst(file);
+                closeConnection();
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                delay = Math.min(delay * 2, config.getRetryMaxDelay());
+                continue;
+            }
+            lastLatency = (System.nanoTime() - started) / 1_000_000;
+            lastSuccess = true;
+            delivered.increment();
+            delay = config.getRetryInitialDelay();
+            capacity.release();
+            try {
+                Files.delete(file);
+            } catch (IOException e) {
+                // the message was delivered, it is only sent again if the file is still there after a restart
+                System.out.println("Removing delivered HL7v2 message " + file.getFileName() + " failed: " + e);
+            }
+        }
+    }
+
+    private void send(Message message) throws HL7Exception, IOException {
+        if (connection == null || !connection.isOpen()) {
+            connection = context.newClient(config.getServer(), config.getPort(), false);
+        }
+        try {
+            connection.getInitiator().sendAndReceive(message);
+        } catch (LLPException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private void park(Path file, Exception cause) {
+        capacity.release();
+        Path parked = file.resolveSibling(file.getFileName() + FAILED_SUFFIX);
+        System.out.println("HL7v2 message " + file.getFileName() + " cannot be read and is moved to "
+                + parked.getFileName() + ": " + cause);
+        try {
+            Files.move(file, parked, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println("Moving HL7v2 message " + file.getFileName() + " failed: " + e);
+        }
+    }
+
+    private void closeConnection() {
+        if (connection != null) {
+            connection.close();
+            connection = null;
+        }
+    }
+
+}
@@ -12,16 +12,34 @@ import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 @JsonPropertyOrder({
     "sendv2",
     "server",
-    "port"
+    "port",
+    "outboxPath",
+    "outboxCapacity",
+    "retryInitialDelay",
+    "retryMaxDelay"
 })
 public final class Hl7v2config {
 
+    // defaults for targets configured before the outbox existed
+    private static final String DEFAULT_OUTBOX_PATH = "outbox";
+    private static final int DEFAULT_OUTBOX_CAPACITY = 10000;
+    private static final int DEFAULT_RETRY_INITIAL_DELAY = 1000;
+    private static final int DEFAULT_RETRY_MAX_DELAY = 300000;
+
     @JsonProperty("sendv2")
     private Boolean sendv2;
     @JsonProperty("server")
     private String server;
     @JsonProperty("port")
     private Integer port;
+    @JsonProperty("outboxPath")
+    private String outboxPath = DEFAULT_OUTBOX_PATH;
+    @JsonProperty("outboxCapacity")
+    private Integer outboxCapacity = DEFAULT_OUTBOX_CAPACITY;
+    @JsonProperty("retryInitialDelay")
+    private Integer retryInitialDelay = DEFAULT_RETRY_INITIAL_DELAY;
+    @JsonProperty("retryMaxDelay")
+    private Integer retryMaxDelay = DEFAULT_RETRY_MAX_DELAY;
 
     @JsonProperty("sendv2")
     public Boolean getSendv2() {
@@ -53,4 +71,44 @@ public final class Hl7v2config {
         this.port = port;
     }
 
+    @JsonProperty("outboxPath")
+    public String getOutboxPath() {
+        return outboxPath;
+    }
+
+    @JsonProperty("outboxPath")
+    public void setOutboxPath(String outboxPath) {
+        this.outboxPath = outboxPath;
+    }
+
+    @JsonProperty("outboxCapacity")
+    public Integer getOutboxCapacity() {
+        return outboxCapacity;
+    }
+
+    @JsonProperty("outboxCapacity")
+    public void setOutboxCapacity(Integer outboxCapacity) {
+        this.outboxCapacity = outboxCapacity;
+    }
+
+    @JsonProperty("retryInitialDelay")
+    public Integer getRetryInitialDelay() {
+        return retryInitialDelay;
+    }
+
+    @JsonProperty("retryInitialDelay")
+    public void setRetryInitialDelay(Integer retryInitialDelay) {
+        this.retryInitialDelay = retryInitialDelay;
+    }
+
+    @JsonProperty("retryMaxDelay")
+    public Integer getRetryMaxDelay() {
+        return retryMaxDelay;
+    }
+
+    @JsonProperty("retryMaxDelay")
+    public void setRetryMaxDelay(Integer retryMaxDelay) {
+        this.retryMaxDelay = retryMaxDelay;
+    }
+
 }
@@ -0,0 +1,94 @@
+package fhirspark;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * POJO representing the configuration of outbound HTTP connections in settings.yaml.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonPropertyOrder({
+    "maxConnectionsTotal",
+    "maxConnectionsPerRoute",
+    "connectTimeout",
+    "socketTimeout",
+    "connectionRequestTimeout",
+    "keepAlive"
+})
+public final class HttpConfig {
+
+    @JsonProperty("maxConnectionsTotal")
+    private Integer maxConnectionsTotal;
+    @JsonProperty("maxConnectionsPerRoute")
+    private Integer maxConnectionsPerRoute;
+    @JsonProperty("connectTimeout")
+    private Integer connectTimeout;
+    @JsonProperty("socketTimeout")
+    private Integer socketTimeout;
+    @JsonProperty("connectionRequestTimeout")
+    private Integer connectionRequestTimeout;
+    @JsonProperty("keepAlive")
+    private Integer keepAlive;
+
+    @JsonProperty("maxConnectionsTotal")
+    public Integer getMaxConnectionsTotal() {
+        return maxConnectionsTotal;
+    }
+
+    @JsonProperty("maxConnectionsTotal")
+    public void setMaxConnectionsTotal(Integer maxConnectionsTotal) {
+        this.maxConnectionsTotal = maxConnectionsTotal;
+    }
+
+    @JsonProperty("maxConnectionsPerRoute")
+    public Integer getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    @JsonProperty("maxConnectionsPerRoute")
+    public void setMaxConnectionsPerRoute(Integer maxConnectionsPerRoute) {
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    }
+
+    @JsonProperty("connectTimeout")
+    public Integer getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    @JsonProperty("connectTimeout")
+    public void setConnectTimeout(Integer connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    @JsonProperty("socketTimeout")
+    public Integer getSocketTimeout() {
+        return socketTimeout;
+    }
+
+    @JsonProperty("socketTimeout")
+    public void setSocketTimeout(Integer socketTimeout) {
+        this.socketTimeout = socketTimeout;
+    }
+
+    @JsonProperty("connectionRequestTimeout")
+    public Integer getConnectionRequestTimeout() {
+        return connectionRequestTimeout;
+    }
+
+    @JsonProperty("connectionRequestTimeout")
+    public void setConnectionRequestTimeout(Integer connectionRequestTimeout) {
+        this.connectionRequestTimeout = connectionRequestTimeout;
+    }
+
+    @JsonProperty("keepAlive")
+    public Integer getKeepAlive() {
+        return keepAlive;
+    }
+
+    @JsonProperty("keepAlive")
+    public void setKeepAlive(Integer keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+}
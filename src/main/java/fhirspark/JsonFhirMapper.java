@@ -3,18 +3,26 @@ package fhirspark;
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.parser.DataFormatException;
 import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.gclient.IQuery;
 import ca.uhn.fhir.rest.gclient.ReferenceClientParam;
 import ca.uhn.fhir.rest.gclient.TokenClientParam;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
 import ca.uhn.fhir.rest.server.exceptions.UnprocessableEntityException;
+import ca.uhn.fhir.util.FhirTerser;
 import com.fasterxml.jackson.core.JsonFactory;
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import fhirspark.adapter.DrugAdapter;
 import fhirspark.adapter.GeneticAlterationsAdapter;
 import fhirspark.adapter.SpecimenAdapter;
 import fhirspark.adapter.clinicaldata.GenericAdapter;
+import fhirspark.resolver.FhirPractitioner;
+import fhirspark.resolver.HgncGeneName;
 import fhirspark.resolver.PubmedPublication;
-import fhirspark.restmodel.CbioportalRest;
 import fhirspark.restmodel.ClinicalDatum;
 import fhirspark.restmodel.Deletions;
 import fhirspark.restmodel.GeneticAlteration;
@@ -22,20 +30,35 @@ import fhirspark.restmodel.Mtb;
 import fhirspark.restmodel.Reasoning;
 import fhirspark.restmodel.TherapyRecommendation;
 import fhirspark.restmodel.Treatment;
+import java.io.ByteArrayOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
 import org.hl7.fhir.instance.model.api.IAnyResource;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IIdType;
 import org.hl7.fhir.r4.model.Annotation;
 import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
@@ -80,25 +103,55 @@ public class JsonFhirMapper {
             "http://hl7.org/fhir/uv/genomics-reporting/StructureDefinition/RelatedArtifact";
     private static final String MEDICATIONCHANGE_URI =
             "http://hl7.org/fhir/uv/genomics-reporting/StructureDefinition/task-med-chg";
+    private static final String EFFICACY_URI =
+            "http://hl7.org/fhir/uv/genomics-reporting/StructureDefinition/medication-efficacy";
     private static final String PUBMED_URI = "https://www.ncbi.nlm.nih.gov/pubmed/";
     private static final String NCIT_URI = "http://ncithesaurus-stage.nci.nih.gov";
     private static final String GENOMICSREPORT_URI =
             "http://hl7.org/fhir/uv/genomics-reporting/StructureDefinition/genomics-report";
     private static final String GENOMIC_URI = "http://terminology.hl7.org/CodeSystem/v2-0074";
+    private static final int VERSION_TOKEN_COUNT = 1000;
+    private static final int PAGE_THREADS = 8;
+    // inconclusive checks of the chained search before falling back to the separate Patient search
+    private static final int MAX_CHAIN_CHECKS = 10;
+    // defaults for settings files that predate the setting
+    private static final int DEFAULT_TRANSACTION_CONCURRENCY = 4;
+    private static final int DEFAULT_SEARCH_PAGE_SIZE = 100;
 
     private static String patientUri;
     private static String therapyRecommendationUri;
     private static String mtbUri;
+    private static String specimenUri;
 
     private FhirContext ctx = FhirContext.forR4();
     private IGenericClient client;
     private ObjectMapper objectMapper = new ObjectMapper(new JsonFactory());
-    private PubmedPublication pubmedResolver = new PubmedPublication();
+    private PubmedPublication pubmedResolver;
+    private FhirPractitioner practitionerResolver;
 
     private GeneticAlterationsAdapter geneticAlterationsAdapter = new GeneticAlterationsAdapter();
     private DrugAdapter drugAdapter = new DrugAdapter();
     private SpecimenAdapter specimenAdapter;
-    private Map<String, Observation> uniqueAlteration = new HashMap<String, Observation>();
+    // only set for the chunked transaction strategy
+    private ExecutorService transactionExecutor;
+    private LogicalIdCache logicalIds = new LogicalIdCache();
+    private int searchPageSize;
+    // requests the following pages of search results in the background, further requests wait for a thread
+    private ExecutorService pageExecutor = Executors.newFixedThreadPool(PAGE_THREADS, r -> {
+        Thread thread = new Thread(r, "fhir-paging");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // cleared once the FHIR server turned out not to support chained search parameters
+    private volatile boolean chainedSearch = true;
+    // set once a chained search was found to filter by the patient
+    private volatile boolean chainedSearchVerified;
+    private final AtomicInteger chainChecks = new AtomicInteger();
+    // only set if the alteration index is enabled, answers queries once the initial scan completed, cleared if the
+    // scan failed
+    private volatile AlterationIndex alterationIndex;
+    // only set if the alteration cache is enabled, used while the alteration index is not ready
+    private AlterationCache alterationCache;
 
     /**
      *
@@ -107,242 +160,528 @@ public class JsonFhirMapper {
      * @param settings Settings object with containing configuration
      */
     public JsonFhirMapper(Settings settings) {
+        this(settings, new SharedHttpClient(settings.getHttpconfig()));
+    }
+
+    private JsonFhirMapper(Settings settings, SharedHttpClient httpClient) {
+        this(settings, httpClient, new PubmedPublication(httpClient.getJerseyClient(), settings.getPubmedCachePath()));
+    }
+
+    /**
+     *
+     * Constructs a new FHIR mapper that sends all requests through the given HTTP client.
+     *
+     * @param settings       Settings object with containing configuration
+     * @param httpClient     pooled HTTP client shared with the other outbound connections
+     * @param pubmedResolver resolver for publication titles shared with the other mappers
+     */
+    public JsonFhirMapper(Settings settings, SharedHttpClient httpClient, PubmedPublication pubmedResolver) {
+        ctx.getRestfulClientFactory().setHttpClient(httpClient.getHttpClient());
         this.client = ctx.newRestfulGenericClient(settings.getFhirDbBase());
+        // Request bodies are compressed and measured here, compressed responses are negotiated by the Apache HTTP
+        // client
+        client.registerInterceptor(new MeasuredGZipContentInterceptor());
+        this.pubmedResolver = pubmedResolver;
+        this.practitionerResolver = new FhirPractitioner(client);
         specimenAdapter = new SpecimenAdapter(settings.getSpecimenSystem());
 
         patientUri = settings.getPatientSystem();
         mtbUri = settings.getDiagnosticReportSystem();
         therapyRecommendationUri = settings.getObservationSystem();
+        specimenUri = settings.getSpecimenSystem();
+        searchPageSize = Objects.requireNonNullElse(settings.getSearchPageSize(), DEFAULT_SEARCH_PAGE_SIZE);
+        if (Boolean.TRUE.equals(settings.getAlterationIndex())) {
+            alterationIndex = new AlterationIndex();
+        }
+        if (settings.getAlterationCacheSize() != null && settings.getAlterationCacheSize() > 0) {
+            alterationCache = new AlterationCache(settings.getAlterationCacheSize());
+        }
+
+        if ("chunked".equals(settings.getTransactionStrategy())) {
+            int concurrency = Objects.requireNonNullElse(settings.getTransactionConcurrency(),
+                    DEFAULT_TRANSACTION_CONCURRENCY);
+            transactionExecutor = Executors.newFixedThreadPool(concurrency, r -> {
+                Thread thread = new Thread(r, "fhir-transaction");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
     }
 
     /**
-     * Retrieves MTB data from FHIR server and transforms it into JSON format for
-     * cBioPortal.
+     * Fills the alteration index with all therapy recommendations stored on the FHIR server. Recommendations written
+     * while the scan is running are kept. Until the scan completed, queries by alteration search the FHIR server. If
+     * the scan fails, the index is disabled and queries keep searching the FHIR server.
      */
-    public String toJson(String patientId) throws JsonProcessingException {
-        List<Mtb> mtbs = new ArrayList<Mtb>();
-        Bundle bPatient = (Bundle) client.search().forResource(Patient.class)
-                .where(new TokenClientParam("identifier").exactly().systemAndCode(patientUri, patientId)).prettyPrint()
-                .execute();
-        Patient fhirPatient = (Patient) bPatient.getEntryFirstRep().getResource();
+    @SuppressWarnings("checkstyle:IllegalCatch")
+    public void buildAlterationIndex() {
+        AlterationIndex index = alterationIndex;
+        if (index == null) {
+            return;
+        }
+        try {
+            Bundle first = (Bundle) client.search().forResource(Observation.class).withProfile(EFFICACY_URI)
+                    .include(Observation.INCLUDE_DERIVED_FROM).include(Observation.INCLUDE_PERFORMER)
+                    .count(searchPageSize).execute();
+            try (SearchPages pages = pages(first)) {
+                for (Bundle page : pages) {
+                    Map<String, String> authors = resolveAuthors(page.getEntry());
+                    for (BundleEntryComponent bec : page.getEntry()) {
+                        if (isEfficacyObservation(bec.getResource())) {
+                            Observation ob = (Observation) bec.getResource();
+                            index.load(ob.getIdentifierFirstRep().getValue(),
+                                    decodeTherapyRecommendation(ob, authors, Collections.emptyMap()));
+                        }
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            // besides server errors, connection failures and recommendations that cannot be decoded end the scan
+            alterationIndex = null;
+            System.out.println("Alteration index disabled, the scan failed: " + e);
+            return;
+        }
+        index.setReady();
+        System.out.println("Alteration index holds " + index.size() + " therapy recommendations");
+    }
 
-        if (fhirPatient == null) {
-            return this.objectMapper.writeValueAsString(new CbioportalRest().withId(patientId).withMtbs(mtbs));
+    /**
+     * Maps a synthetic therapy recommendation through the adapters and the FHIR serializer, so the first real
+     * request does not pay for class loading, lazy initialization and interpreted code.
+     * Requires the HGNC and OncoKB resolvers to be initialized.
+     *
+     * @param iterations number of mappings to perform.
+     */
+    public void warmUp(int iterations) {
+        Reference patient = new Reference("Patient/warmup");
+        GeneticAlteration pointMutation = new GeneticAlteration().withEntrezGeneId(673).withHugoSymbol("BRAF")
+                .withAlteration("V600E").withChromosome("7").withStart(140453136).withEnd(140453136).withRef("A")
+                .withAlt("T").withAlleleFrequency(0.5).withDbsnp("rs113488022");
+        GeneticAlteration amplification = new GeneticAlteration().withEntrezGeneId(2064).withHugoSymbol("ERBB2")
+                .withAlteration("Amplification").withChromosome("17");
+        Treatment treatment = new Treatment().withName("Vemurafenib");
+        for (int i = 0; i < iterations; i++) {
+            ctx.newJsonParser().encodeResourceToString(geneticAlterationsAdapter.process(pointMutation));
+            ctx.newJsonParser().encodeResourceToString(geneticAlterationsAdapter.process(amplification));
+            ctx.newJsonParser().encodeResourceToString(drugAdapter.process(patient, treatment));
         }
+    }
 
-        Bundle bDiagnosticReports = (Bundle) client.search().forResource(DiagnosticReport.class)
-                .where(new ReferenceClientParam("subject").hasId(harmonizeId(fhirPatient))).prettyPrint()
-                .include(DiagnosticReport.INCLUDE_RESULT.asRecursive()).execute();
+    /**
+     * Retrieves MTB data from FHIR server and transforms it into JSON format for
+     * cBioPortal.
+     */
 
-        List<BundleEntryComponent> diagnosticReports = bDiagnosticReports.getEntry();
+    public String toJson(String patientId) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeJson(patientId, out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
 
-        for (int i = 0; i < diagnosticReports.size(); i++) {
-            if (!(diagnosticReports.get(i).getResource() instanceof DiagnosticReport)) {
-                continue;
+    /**
+     * Retrieves MTB data from FHIR server and writes it in JSON format for cBioPortal. MTBs are written page by page
+     * as their DiagnosticReports are decoded, so the whole response is never held in memory. Nothing is written
+     * before the first page is decoded, so most FHIR errors occur before the response is committed.
+     *
+     * @param patientId id of the patient.
+     * @param out       target of the JSON document, is not closed.
+     * @throws IOException if the JSON document cannot be written.
+     */
+    public void writeJson(String patientId, OutputStream out) throws IOException {
+        Bundle bDiagnosticReports = searchDiagnosticReports(patientId,
+                query -> query.count(searchPageSize).include(DiagnosticReport.INCLUDE_SUBJECT)
+                        .include(DiagnosticReport.INCLUDE_RESULT.asRecursive())
+                        .include(DiagnosticReport.INCLUDE_SPECIMEN).include(DiagnosticReport.INCLUDE_PERFORMER)
+                        .include(Observation.INCLUDE_PERFORMER.asRecursive()));
+        try (SearchPages searchPages = pages(bDiagnosticReports)) {
+            Iterator<Bundle> pages = searchPages.iterator();
+            List<Mtb> mtbs = toMtbs(patientId, pages.next());
+
+            JsonGenerator generator = objectMapper.getFactory().createGenerator(out)
+                    .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.writeStartObject();
+            generator.writeStringField("id", patientId);
+            generator.writeArrayFieldStart("mtbs");
+            while (true) {
+                for (Mtb mtb : mtbs) {
+                    objectMapper.writeValue(generator, mtb);
+                }
+                if (!pages.hasNext()) {
+                    break;
+                }
+                mtbs = toMtbs(patientId, pages.next());
             }
-            DiagnosticReport diagnosticReport = (DiagnosticReport) diagnosticReports.get(i).getResource();
 
-            Mtb mtb = new Mtb().withTherapyRecommendations(new ArrayList<TherapyRecommendation>())
-                    .withSamples(new ArrayList<String>());
-            mtbs.add(mtb);
+            generator.writeEndArray();
+            generator.writeEndObject();
+            generator.close();
+        }
+    }
 
-            if (diagnosticReport.hasPerformer()) {
-                Bundle b2 = (Bundle) client.search().forResource(Practitioner.class).where(new TokenClientParam("_id")
-                        .exactly().code(diagnosticReport.getPerformerFirstRep().getReference())).prettyPrint()
-                        .execute();
-                Practitioner author = (Practitioner) b2.getEntryFirstRep().getResource();
-                mtb.setAuthor(author.getIdentifierFirstRep().getValue());
+    /**
+     * Decodes the DiagnosticReports of a page of search results. Included resources are returned on the page of the
+     * DiagnosticReport that references them.
+     *
+     * @param patientId id of the patient.
+     * @param page      page of the DiagnosticReport search.
+     * @return MTBs of the page.
+     */
+    private List<Mtb> toMtbs(String patientId, Bundle page) {
+        List<BundleEntryComponent> diagnosticReports = page.getEntry();
+        resolveSpecimens(diagnosticReports);
+        Map<String, String> authors = resolveAuthors(diagnosticReports);
+        List<Mtb> mtbs = new ArrayList<Mtb>();
+        for (BundleEntryComponent entry : diagnosticReports) {
+            if (entry.getResource() instanceof DiagnosticReport) {
+                mtbs.add(toMtb(patientId, (DiagnosticReport) entry.getResource(), authors));
             }
+        }
+        return mtbs;
+    }
 
-            SimpleDateFormat f = new SimpleDateFormat("yyyy-MM-dd");
-            mtb.setDate(f.format(diagnosticReport.getEffectiveDateTimeType().toCalendar().getTime()));
+    /**
+     * Decodes a DiagnosticReport with its therapy recommendations into an MTB.
+     *
+     * @param patientId        id of the patient.
+     * @param diagnosticReport DiagnosticReport with resolved results and specimens.
+     * @param authors          credentials of the performers by their reference.
+     * @return the MTB.
+     */
+    private Mtb toMtb(String patientId, DiagnosticReport diagnosticReport, Map<String, String> authors) {
+        Mtb mtb = new Mtb().withTherapyRecommendations(new ArrayList<TherapyRecommendation>())
+                .withSamples(new ArrayList<String>());
 
-            mtb.setGeneralRecommendation(diagnosticReport.getConclusion());
+        if (diagnosticReport.hasPerformer()) {
+            mtb.setAuthor(authors.get(diagnosticReport.getPerformerFirstRep().getReference()));
+        }
 
-            // GENETIC COUNSELING HERE
+        SimpleDateFormat f = new SimpleDateFormat("yyyy-MM-dd");
+        mtb.setDate(f.format(diagnosticReport.getEffectiveDateTimeType().toCalendar().getTime()));
 
-            mtb.setId("mtb_" + patientId + "_" + diagnosticReport.getIssued().getTime());
+        mtb.setGeneralRecommendation(diagnosticReport.getConclusion());
 
-            if (diagnosticReport.hasStatus()) {
-                mtb.setMtbState(diagnosticReport.getStatus().toCode().toUpperCase());
-            }
+        // GENETIC COUNSELING HERE
 
-            // REBIOPSY HERE
-            mtb.getSamples().clear();
-            for (Reference specimen : diagnosticReport.getSpecimen()) {
-                mtb.getSamples().add(((Specimen) specimen.getResource()).getIdentifierFirstRep().getValue());
-            }
+        mtb.setId("mtb_" + patientId + "_" + diagnosticReport.getIssued().getTime());
+
+        if (diagnosticReport.hasStatus()) {
+            mtb.setMtbState(diagnosticReport.getStatus().toCode().toUpperCase());
+        }
 
-            for (Reference reference : diagnosticReport.getResult()) {
-                switch (reference.getResource().getMeta().getProfile().get(0).getValue()) {
-                    case "http://hl7.org/fhir/uv/genomics-reporting/StructureDefinition/medication-efficacy":
-                        Observation ob = (Observation) reference.getResource();
+        // REBIOPSY HERE
+        mtb.getSamples().clear();
+        for (Reference specimen : diagnosticReport.getSpecimen()) {
+            mtb.getSamples().add(((Specimen) specimen.getResource()).getIdentifierFirstRep().getValue());
+        }
+
+        for (Reference reference : diagnosticReport.getResult()) {
+            switch (reference.getResource().getMeta().getProfile().get(0).getValue()) {
+                case "http://hl7.org/fhir/uv/genomics-reporting/StructureDefinition/medication-efficacy":
+                    Observation ob = (Observation) reference.getResource();
+
+                    TherapyRecommendation therapyRecommendation = new TherapyRecommendation()
+                            .withComment(new ArrayList<String>()).withReasoning(new Reasoning());
+                    mtb.getTherapyRecommendations().add(therapyRecommendation);
+                    List<ClinicalDatum> clinicalData = new ArrayList<ClinicalDatum>();
+                    List<GeneticAlteration> geneticAlterations = new ArrayList<GeneticAlteration>();
+                    therapyRecommendation.getReasoning().withClinicalData(clinicalData)
+                            .withGeneticAlterations(geneticAlterations);
+
+                    if (ob.hasPerformer()) {
+                        therapyRecommendation.setAuthor(authors.get(ob.getPerformerFirstRep().getReference()));
+                    }
 
-                        TherapyRecommendation therapyRecommendation = new TherapyRecommendation()
-                                .withComment(new ArrayList<String>()).withReasoning(new Reasoning());
-                        mtb.getTherapyRecommendations().add(therapyRecommendation);
-                        List<ClinicalDatum> clinicalData = new ArrayList<ClinicalDatum>();
-                        List<GeneticAlteration> geneticAlterations = new ArrayList<GeneticAlteration>();
-                        therapyRecommendation.getReasoning().withClinicalData(clinicalData)
-                                .withGeneticAlterations(geneticAlterations);
+                    therapyRecommendation.setId(ob.getIdentifierFirstRep().getValue());
 
-                        if (ob.hasPerformer()) {
-                            Bundle b2 = (Bundle) client
-                                    .search().forResource(Practitioner.class).where(new TokenClientParam("_id")
-                                            .exactly().code(ob.getPerformerFirstRep().getReference()))
-                                    .prettyPrint().execute();
-                            Practitioner author = (Practitioner) b2.getEntryFirstRep().getResource();
-                            therapyRecommendation.setAuthor(author.getIdentifierFirstRep().getValue());
+                    ob.getHasMember().forEach(member -> {
+                        Observation obs = (Observation) member.getResource();
+                        String[] attr = obs.getValueStringType().asStringValue().split(": ");
+                        ClinicalDatum cd = new ClinicalDatum().withAttributeName(attr[0]).withValue(attr[1]);
+                        if (obs.getSpecimen().getResource() != null) {
+                            Specimen specimen = (Specimen) obs.getSpecimen().getResource();
+                            cd.setSampleId(specimen.getIdentifierFirstRep().getValue());
                         }
+                        therapyRecommendation.getReasoning().getClinicalData()
+                                .add(cd);
+                    });
 
-                        therapyRecommendation.setId(ob.getIdentifierFirstRep().getValue());
+                    List<Treatment> treatments = new ArrayList<Treatment>();
+                    therapyRecommendation.setTreatments(treatments);
+                    List<Extension> recommendedActionReferences = diagnosticReport
+                            .getExtensionsByUrl(RECOMMENDEDACTION_URI);
 
-                        ob.getHasMember().forEach(member -> {
-                            Observation obs = (Observation) member.getResource();
-                            String[] attr = obs.getValueStringType().asStringValue().split(": ");
-                            ClinicalDatum cd = new ClinicalDatum().withAttributeName(attr[0]).withValue(attr[1]);
-                            if (obs.getSpecimen().getResource() != null) {
-                                Specimen specimen = (Specimen) obs.getSpecimen().getResource();
-                                cd.setSampleId(specimen.getIdentifierFirstRep().getValue());
-                            }
-                            therapyRecommendation.getReasoning().getClinicalData()
-                                    .add(cd);
-                        });
+                    recommendedActionReferences.forEach(recommendedActionReference -> {
 
-                        List<Treatment> treatments = new ArrayList<Treatment>();
-                        therapyRecommendation.setTreatments(treatments);
-                        List<Extension> recommendedActionReferences = diagnosticReport
-                                .getExtensionsByUrl(RECOMMENDEDACTION_URI);
-
-                        recommendedActionReferences.forEach(recommendedActionReference -> {
-
-                            Task t = (Task) ((Reference) recommendedActionReference.getValue()).getResource();
-                            if (t != null) {
-                                assert t.getMeta().getProfile().get(0).getValue().equals(FOLLOWUP_URI);
-                                Coding c = t.getCode().getCodingFirstRep();
-                                switch (c.getCode()) {
-                                    case "LA14021-2":
-                                        mtb.setRebiopsyRecommendation(true);
-                                        break;
-                                    case "LA14020-4":
-                                        mtb.setGeneticCounselingRecommendation(true);
-                                        break;
-                                    default:
-                                        break;
-                                }
+                        Task t = (Task) ((Reference) recommendedActionReference.getValue()).getResource();
+                        if (t != null) {
+                            assert t.getMeta().getProfile().get(0).getValue().equals(FOLLOWUP_URI);
+                            Coding c = t.getCode().getCodingFirstRep();
+                            switch (c.getCode()) {
+                                case "LA14021-2":
+                                    mtb.setRebiopsyRecommendation(true);
+                                    break;
+                                case "LA14020-4":
+                                    mtb.setGeneticCounselingRecommendation(true);
+                                    break;
+                                default:
+                                    break;
                             }
-                        });
+                        }
+                    });
 
-                        List<fhirspark.restmodel.Reference> references = new ArrayList<fhirspark.restmodel.Reference>();
-                        ob.getExtensionsByUrl(RELATEDARTIFACT_URI).forEach(relatedArtifact -> {
-                            if (((RelatedArtifact) relatedArtifact.getValue())
-                                    .getType() == RelatedArtifactType.CITATION) {
-                                references.add(new fhirspark.restmodel.Reference()
-                                        .withPmid(Integer.valueOf(((RelatedArtifact) relatedArtifact.getValue())
-                                                .getUrl().replaceFirst(PUBMED_URI, "")))
-                                        .withName(((RelatedArtifact) relatedArtifact.getValue()).getCitation()));
-                            }
-                        });
+                    List<fhirspark.restmodel.Reference> references = new ArrayList<fhirspark.restmodel.Reference>();
+                    ob.getExtensionsByUrl(RELATEDARTIFACT_URI).forEach(relatedArtifact -> {
+                        if (((RelatedArtifact) relatedArtifact.getValue())
+                                .getType() == RelatedArtifactType.CITATION) {
+                            references.add(new fhirspark.restmodel.Reference()
+                                    .withPmid(Integer.valueOf(((RelatedArtifact) relatedArtifact.getValue())
+                                            .getUrl().replaceFirst(PUBMED_URI, "")))
+                                    .withName(((RelatedArtifact) relatedArtifact.getValue()).getCitation()));
+                        }
+                    });
 
-                        therapyRecommendation.setReferences(references);
+                    therapyRecommendation.setReferences(references);
 
-                        ob.getComponent().forEach(result -> {
-                            if (result.getCode().getCodingFirstRep().getCode().equals("93044-6")) {
-                                therapyRecommendation.setEvidenceLevel(
-                                        result.getValueCodeableConcept().getCodingFirstRep().getCode());
-                            }
-                            if (result.getCode().getCodingFirstRep().getCode().equals("51963-7")) {
-                                therapyRecommendation.getTreatments().add(new Treatment()
-                                        .withNcitCode(result.getValueCodeableConcept().getCodingFirstRep().getCode())
-                                        .withName(result.getValueCodeableConcept().getCodingFirstRep().getDisplay()));
-                            }
-                        });
+                    ob.getComponent().forEach(result -> {
+                        if (result.getCode().getCodingFirstRep().getCode().equals("93044-6")) {
+                            therapyRecommendation.setEvidenceLevel(
+                                    result.getValueCodeableConcept().getCodingFirstRep().getCode());
+                        }
+                        if (result.getCode().getCodingFirstRep().getCode().equals("51963-7")) {
+                            therapyRecommendation.getTreatments().add(new Treatment()
+                                    .withNcitCode(result.getValueCodeableConcept().getCodingFirstRep().getCode())
+                                    .withName(result.getValueCodeableConcept().getCodingFirstRep().getDisplay()));
+                        }
+                    });
 
-                        ob.getDerivedFrom().forEach(reference1 -> {
-                            GeneticAlteration g = new GeneticAlteration();
-                            ((Observation) reference1.getResource()).getComponent().forEach(variant -> {
-                                switch (variant.getCode().getCodingFirstRep().getCode()) {
-                                    case "48005-3":
-                                        g.setAlteration(variant.getValueCodeableConcept().getCodingFirstRep().getCode()
-                                                .replaceFirst("p.", ""));
-                                        break;
-                                    case "81252-9":
-                                        variant.getValueCodeableConcept().getCoding().forEach(coding -> {
-                                            switch (coding.getSystem()) {
-                                                case "http://www.ncbi.nlm.nih.gov/gene":
-                                                    g.setEntrezGeneId(Integer.valueOf(coding.getCode()));
-                                                    break;
-                                                case "http://www.ncbi.nlm.nih.gov/clinvar":
-                                                    g.setClinvar(Integer.valueOf(coding.getCode()));
-                                                    break;
-                                                case "http://cancer.sanger.ac.uk/cancergenome/projects/cosmic":
-                                                    g.setCosmic(coding.getCode());
-                                                    break;
-                                                default:
-                                                    break;
-                                            }
-                                        });
-                                        break;
-                                    case "48018-6":
-                                        g.setHugoSymbol(
-                                                variant.getValueCodeableConcept().getCodingFirstRep().getDisplay());
-                                        break;
-                                    case "48001-2":
-                                        g.setChromosome(
-                                                variant.getValueCodeableConcept().getCodingFirstRep().getCode());
-                                        break;
-                                    case "81258-6":
-                                        g.setAlleleFrequency(variant.getValueQuantity().getValue().doubleValue());
-                                        break;
-                                    case "81255-2":
-                                        g.setDbsnp(variant.getValueCodeableConcept().getCodingFirstRep().getCode());
-                                        break;
-                                    case "62378-5":
-                                        switch (variant.getValueCodeableConcept().getCodingFirstRep().getCode()) {
-                                            case "LA14033-7":
-                                                g.setAlteration("Amplification");
+                    derivedVariants(ob, Collections.emptyMap()).forEach(derived -> {
+                        GeneticAlteration g = new GeneticAlteration();
+                        derived.getComponent().forEach(variant -> {
+                            switch (variant.getCode().getCodingFirstRep().getCode()) {
+                                case "48005-3":
+                                    g.setAlteration(variant.getValueCodeableConcept().getCodingFirstRep().getCode()
+                                            .replaceFirst("p.", ""));
+                                    break;
+                                case "81252-9":
+                                    variant.getValueCodeableConcept().getCoding().forEach(coding -> {
+                                        switch (coding.getSystem()) {
+                                            case "http://www.ncbi.nlm.nih.gov/gene":
+                                                g.setEntrezGeneId(Integer.valueOf(coding.getCode()));
+                                                break;
+                                            case "http://www.ncbi.nlm.nih.gov/clinvar":
+                                                g.setClinvar(Integer.valueOf(coding.getCode()));
                                                 break;
-                                            case "LA14034-5":
-                                                g.setAlteration("Deletion");
+                                            case "http://cancer.sanger.ac.uk/cancergenome/projects/cosmic":
+                                                g.setCosmic(coding.getCode());
                                                 break;
                                             default:
                                                 break;
                                         }
-                                        break;
-                                    case "69551-0":
-                                        g.setAlt(variant.getValueStringType().getValue());
-                                        break;
-                                    case "69547-8":
-                                        g.setRef(variant.getValueStringType().getValue());
-                                        break;
-                                    case "exact-start-end":
-                                        if (variant.getValueRange().getLow().getValue() != null) {
-                                            g.setStart(Integer
-                                                    .valueOf(variant.getValueRange().getLow().getValue().toString()));
-                                        }
-                                        if (variant.getValueRange().getHigh().getValue() != null) {
-                                            g.setEnd(Integer
-                                                    .valueOf(variant.getValueRange().getHigh().getValue().toString()));
-                                        }
-                                        break;
-                                    default:
-                                        break;
-                                }
-                            });
-                            geneticAlterations.add(g);
+                                    });
+                                    break;
+                                case "48018-6":
+                                    g.setHugoSymbol(
+                                            variant.getValueCodeableConcept().getCodingFirstRep().getDisplay());
+                                    break;
+                                case "48001-2":
+                                    g.setChromosome(
+                                            variant.getValueCodeableConcept().getCodingFirstRep().getCode());
+                                    break;
+                                case "81258-6":
+                                    g.setAlleleFrequency(variant.getValueQuantity().getValue().doubleValue());
+                                    break;
+                                case "81255-2":
+                                    g.setDbsnp(variant.getValueCodeableConcept().getCodingFirstRep().getCode());
+                                    break;
+                                case "62378-5":
+                                    switch (variant.getValueCodeableConcept().getCodingFirstRep().getCode()) {
+                                        case "LA14033-7":
+                                            g.setAlteration("Amplification");
+                                            break;
+                                        case "LA14034-5":
+                                            g.setAlteration("Deletion");
+                                            break;
+                                        default:
+                                            break;
+                                    }
+                                    break;
+                                case "69551-0":
+                                    g.setAlt(variant.getValueStringType().getValue());
+                                    break;
+                                case "69547-8":
+                                    g.setRef(variant.getValueStringType().getValue());
+                                    break;
+                                case "exact-start-end":
+                                    if (variant.getValueRange().getLow().getValue() != null) {
+                                        g.setStart(Integer
+                                                .valueOf(variant.getValueRange().getLow().getValue().toString()));
+                                    }
+                                    if (variant.getValueRange().getHigh().getValue() != null) {
+                                        g.setEnd(Integer
+                                                .valueOf(variant.getValueRange().getHigh().getValue().toString()));
+                                    }
+                                    break;
+                                default:
+                                    break;
+                            }
                         });
+                        geneticAlterations.add(g);
+                    });
 
-                        ob.getNote().forEach(note -> therapyRecommendation.getComment().add(note.getText()));
-                        break;
-                    default:
-                        break;
+                    ob.getNote().forEach(note -> therapyRecommendation.getComment().add(note.getText()));
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        return mtb;
+    }
+
+    /**
+     * Computes a token that changes whenever a DiagnosticReport of the patient or one of its result Observations is
+     * created, updated or deleted. The subject is included and keeps its identifiers, so the search can still tell
+     * whether the server ignored a chained search.
+     *
+     * @param patientId id of the patient.
+     * @return hash over the ids and version ids of the patient's DiagnosticReports, their results and the patient.
+     */
+    public String getVersionToken(String patientId) {
+        Bundle bDiagnosticReports = searchDiagnosticReports(patientId,
+                query -> query.elementsSubset("id", "meta", "identifier", "subject", "result")
+                        .count(VERSION_TOKEN_COUNT).include(DiagnosticReport.INCLUDE_SUBJECT)
+                        .include(DiagnosticReport.INCLUDE_RESULT.asRecursive()));
+
+        List<String> versions = new ArrayList<String>();
+        try (SearchPages pages = pages(bDiagnosticReports)) {
+            for (Bundle page : pages) {
+                for (BundleEntryComponent entry : page.getEntry()) {
+                    versions.add(entry.getResource().fhirType() + "/"
+                            + entry.getResource().getIdElement().getIdPart() + "/"
+                            + entry.getResource().getMeta().getVersionId() + "/"
+                            + entry.getResource().getMeta().getLastUpdatedElement().getValueAsString());
                 }
             }
+        }
+        Collections.sort(versions);
 
+        Hasher hasher = Hashing.sha256().newHasher();
+        versions.forEach(version -> hasher.putString(version, StandardCharsets.UTF_8));
+        return hasher.hash().toString();
+    }
+
+    private SearchPages pages(Bundle first) {
+        return new SearchPages(client, first, pageExecutor);
+    }
+
+    /**
+     * Searches the DiagnosticReports of a patient. A search chained over the patient identifier needs a single round
+     * trip. If the server rejects or ignores the chain, the Patient is searched first from then on. Until a chained
+     * search returned DiagnosticReports, all of its pages are checked for other subjects.
+     *
+     * @param patientId id of the patient.
+     * @param options   adds includes and other parameters to the search.
+     * @return search result, empty if the patient is unknown.
+     */
+    private Bundle searchDiagnosticReports(String patientId, UnaryOperator<IQuery<Bundle>> options) {
+        String logicalId = logicalIds.get("Patient", patientUri, patientId);
+        if (logicalId != null) {
+            try {
+                return options.apply(client.search().forResource(DiagnosticReport.class)
+                        .where(new ReferenceClientParam("subject").hasId(logicalId)).returnBundle(Bundle.class))
+                        .execute();
+            } catch (BaseServerResponseException e) {
+                // the Patient may no longer exist
+                logicalIds.invalidate(Set.of(logicalId));
+                throw e;
+            }
+        }
+        if (chainedSearch) {
+            try {
+                Bundle bDiagnosticReports = options.apply(chainedSearch(patientId)).execute();
+                if (!hasOtherSubject(bDiagnosticReports, patientId)
+                        && (chainedSearchVerified || !ignoresChain(patientId))) {
+                    bDiagnosticReports.getEntry().stream().map(BundleEntryComponent::getResource)
+                            .filter(Patient.class::isInstance)
+                            .forEach(patient -> logicalIds.put(patient.getIdElement(), patientUri, patientId));
+                    return bDiagnosticReports;
+                }
+                System.out.println("FHIR server ignored the chained search or it could not be verified, searching "
+                        + "Patients separately");
+            } catch (InvalidRequestException e) {
+                System.out.println("FHIR server rejected the chained search, searching Patients separately: "
+                        + e.getMessage());
+            }
+            chainedSearch = false;
         }
 
-        return this.objectMapper.writeValueAsString(new CbioportalRest().withId(patientId).withMtbs(mtbs));
+        Bundle bPatient = (Bundle) client.search().forResource(Patient.class)
+                .where(new TokenClientParam("identifier").exactly().systemAndCode(patientUri, patientId)).prettyPrint()
+                .execute();
+        Patient fhirPatient = (Patient) bPatient.getEntryFirstRep().getResource();
+        if (fhirPatient == null) {
+            return new Bundle();
+        }
+        logicalIds.put(fhirPatient.getIdElement(), patientUri, patientId);
+        return options.apply(client.search().forResource(DiagnosticReport.class)
+                .where(new ReferenceClientParam("subject").hasId(harmonizeId(fhirPatient)))
+                .returnBundle(Bundle.class)).execute();
+    }
+
+    private IQuery<Bundle> chainedSearch(String patientId) {
+        return client.search().forResource(DiagnosticReport.class)
+                .where(DiagnosticReport.SUBJECT.hasChainedProperty(
+                        Patient.IDENTIFIER.exactly().systemAndCode(patientUri, patientId)))
+                .returnBundle(Bundle.class);
+    }
+
+    /**
+     * Checks all pages of a chained search for DiagnosticReports of other patients. Only the subjects and their
+     * identifiers are requested. If the patient has no DiagnosticReports, the server is asked for any
+     * DiagnosticReport: a server that ignored the chain would have returned it. Only a server without any
+     * DiagnosticReport leaves the check inconclusive, after {@value #MAX_CHAIN_CHECKS} such checks the chained
+     * search is given up.
+     *
+     * @param patientId id of the patient.
+     * @return true if the server ignored the chained search parameter or it could not be verified.
+     */
+    private boolean ignoresChain(String patientId) {
+        Bundle bDiagnosticReports = chainedSearch(patientId).elementsSubset("id", "identifier", "subject")
+                .include(DiagnosticReport.INCLUDE_SUBJECT).count(VERSION_TOKEN_COUNT).execute();
+        boolean found = false;
+        try (SearchPages pages = pages(bDiagnosticReports)) {
+            for (Bundle page : pages) {
+                if (hasOtherSubject(page, patientId)) {
+                    return true;
+                }
+                found |= page.getEntry().stream()
+                        .anyMatch(entry -> entry.getResource() instanceof DiagnosticReport);
+            }
+        }
+        if (found || !client.search().forResource(DiagnosticReport.class).elementsSubset("id").count(1)
+                .returnBundle(Bundle.class).execute().getEntry().isEmpty()) {
+            chainedSearchVerified = true;
+            return false;
+        }
+        // a server without DiagnosticReports cannot show whether it ignores the chain
+        if (chainChecks.incrementAndGet() < MAX_CHAIN_CHECKS) {
+            return false;
+        }
+        System.out.println("Chained search could not be verified in " + MAX_CHAIN_CHECKS + " attempts");
+        return true;
+    }
 
+    private boolean hasOtherSubject(Bundle bDiagnosticReports, String patientId) {
+        for (BundleEntryComponent entry : bDiagnosticReports.getEntry()) {
+            if (entry.getResource() instanceof DiagnosticReport) {
+                IBaseResource subject = ((DiagnosticReport) entry.getResource()).getSubject().getResource();
+                if (subject instanceof Patient && ((Patient) subject).getIdentifier().stream()
+                        .noneMatch(i -> patientUri.equals(i.getSystem()) && patientId.equals(i.getValue()))) {
+                    return true;
+                }
+            }
+        }
+        return false;
     }
 
     /**
@@ -350,10 +689,277 @@ public class JsonFhirMapper {
      */
     public void addOrEditMtb(String patientId, List<Mtb> mtbs) throws DataFormatException, IOException {
 
-        Bundle bundle = new Bundle();
-        bundle.setType(Bundle.BundleType.TRANSACTION);
+        Bundle bundle = buildBundle(patientId, mtbs);
 
-        Reference fhirPatient = getOrCreatePatient(bundle, patientId);
+        if (transactionExecutor != null) {
+            submitChunked(patientId, bundle);
+            return;
+        }
+
+        try {
+            Bundle resp = client.transaction().withBundle(bundle).execute();
+            rememberIds(bundle, resp);
+            recommendationsWritten(bundle);
+
+            // Log the response
+            System.out.println(ctx.newJsonParser().setPrettyPrint(true).encodeResourceToString(resp));
+        } catch (UnprocessableEntityException entityException) {
+            forgetReferencedIds(bundle);
+            FileWriter f = new FileWriter("error.json");
+            f.write(entityException.getResponseBody());
+            f.close();
+        } catch (BaseServerResponseException e) {
+            forgetReferencedIds(bundle);
+            throw e;
+        }
+
+    }
+
+    /**
+     * Persists only the MTBs that differ from the currently stored state. MTBs are compared as a whole, a changed
+     * MTB is written completely.
+     *
+     * @param patientId id of the patient.
+     * @param mtbs      MTBs sent by cBioPortal.
+     * @param current   MTBs as currently stored, e.g. taken from the response cache.
+     * @throws DataFormatException if the transaction cannot be encoded.
+     * @throws IOException         if the error response cannot be stored.
+     */
+    public void addOrEditMtb(String patientId, List<Mtb> mtbs, List<Mtb> current)
+            throws DataFormatException, IOException {
+        List<Mtb> changed = changedMtbs(mtbs, current);
+        System.out.println("Writing " + changed.size() + " of " + mtbs.size() + " MTBs of " + patientId);
+        if (!changed.isEmpty()) {
+            addOrEditMtb(patientId, changed);
+        }
+    }
+
+    /**
+     *
+     * @param mtbs    MTBs sent by cBioPortal.
+     * @param current MTBs as currently stored.
+     * @return MTBs that are new or differ structurally from the stored MTB with the same id.
+     */
+    List<Mtb> changedMtbs(List<Mtb> mtbs, List<Mtb> current) {
+        Map<String, JsonNode> stored = new HashMap<String, JsonNode>();
+        current.forEach(mtb -> stored.put(mtb.getId(), objectMapper.valueToTree(mtb)));
+        List<Mtb> changed = new ArrayList<Mtb>();
+        for (Mtb mtb : mtbs) {
+            if (!objectMapper.valueToTree(mtb).equals(stored.get(mtb.getId()))) {
+                changed.add(mtb);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Submits a transaction bundle in dependency order. The resources shared between MTBs are written first, then
+     * the MTBs are written concurrently and reference the shared resources by their server ids. If the shared
+     * resources are rejected, no MTB is written and the failure is thrown.
+     *
+     * @param patientId id of the patient.
+     * @param bundle    transaction bundle built by {@link #buildBundle(String, List)}.
+     */
+    private void submitChunked(String patientId, Bundle bundle) {
+        List<Bundle> chunks = splitBundle(bundle);
+        Bundle shared = chunks.get(0);
+        // the MTBs cannot be written without the resources they reference, a failure ends the whole request
+        Bundle sharedResponse = submitChunk("shared", shared);
+        rememberIds(shared, sharedResponse);
+        for (int i = 0; i < shared.getEntry().size(); i++) {
+            String location = sharedResponse.getEntry().get(i).getResponse().getLocation();
+            if (location != null) {
+                shared.getEntry().get(i).getResource().setId(new IdType(location).toUnqualifiedVersionless());
+            }
+        }
+
+        List<CompletableFuture<Bundle>> results = new ArrayList<CompletableFuture<Bundle>>();
+        for (int i = 1; i < chunks.size(); i++) {
+            Bundle chunk = chunks.get(i);
+            String name = i + "/" + (chunks.size() - 1);
+            results.add(CompletableFuture.supplyAsync(() -> submitChunk(name, chunk), transactionExecutor));
+        }
+        int failed = 0;
+        CompletionException failure = null;
+        for (CompletableFuture<Bundle> result : results) {
+            try {
+                result.join();
+            } catch (CompletionException e) {
+                failed++;
+                if (failure == null && !(e.getCause() instanceof UnprocessableEntityException)) {
+                    failure = e;
+                }
+            }
+        }
+        System.out.println("Wrote " + (results.size() - failed) + " of " + results.size() + " MTB chunks of "
+                + patientId);
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private Bundle submitChunk(String name, Bundle chunk) {
+        long start = System.currentTimeMillis();
+        try {
+            Bundle resp = client.transaction().withBundle(chunk).execute();
+            recommendationsWritten(chunk);
+            System.out.println("Transaction chunk " + name + " with " + chunk.getEntry().size() + " entries written in "
+                    + (System.currentTimeMillis() - start) + " ms");
+            return resp;
+        } catch (BaseServerResponseException e) {
+            forgetReferencedIds(chunk);
+            System.out.println("Transaction chunk " + name + " with " + chunk.getEntry().size()
+                    + " entries failed after " + (System.currentTimeMillis() - start) + " ms: " + e.getMessage());
+            if (e instanceof UnprocessableEntityException) {
+                writeError(e.getResponseBody());
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Forgets the cached logical ids referenced by a failed transaction, as one of them may refer to a resource that
+     * no longer exists.
+     *
+     * @param bundle failed transaction.
+     */
+    private void forgetReferencedIds(Bundle bundle) {
+        Set<String> referenced = new HashSet<String>();
+        FhirTerser terser = ctx.newTerser();
+        for (BundleEntryComponent entry : bundle.getEntry()) {
+            for (Reference reference : terser.getAllPopulatedChildElementsOfType(entry.getResource(),
+                    Reference.class)) {
+                IIdType id = reference.getResource() != null ? reference.getResource().getIdElement()
+                        : reference.getReferenceElement();
+                if (id.hasResourceType() && id.hasIdPart()) {
+                    referenced.add(id.toUnqualifiedVersionless().getValue());
+                }
+            }
+        }
+        logicalIds.invalidate(referenced);
+    }
+
+    private synchronized void writeError(String responseBody) {
+        try (FileWriter f = new FileWriter("error.json")) {
+            f.write(responseBody);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Remembers the logical ids the server assigned to the Patients and Practitioners of a transaction.
+     *
+     * @param request  submitted transaction.
+     * @param response response of the server with one entry per submitted entry.
+     */
+    private void rememberIds(Bundle request, Bundle response) {
+        for (int i = 0; i < request.getEntry().size() && i < response.getEntry().size(); i++) {
+            Resource resource = request.getEntry().get(i).getResource();
+            String location = response.getEntry().get(i).getResponse().getLocation();
+            if (location == null) {
+                continue;
+            }
+            if (resource instanceof Patient) {
+                Identifier identifier = ((Patient) resource).getIdentifierFirstRep();
+                logicalIds.put(new IdType(location), identifier.getSystem(), identifier.getValue());
+            }
+            if (resource instanceof Practitioner) {
+                Identifier identifier = ((Practitioner) resource).getIdentifierFirstRep();
+                logicalIds.put(new IdType(location), identifier.getSystem(), identifier.getValue());
+            }
+        }
+    }
+
+    /**
+     * Updates the alteration index and cache with the therapy recommendations of a transaction the server
+     * accepted.
+     *
+     * @param bundle submitted transaction.
+     */
+    private void recommendationsWritten(Bundle bundle) {
+        AlterationIndex index = alterationIndex;
+        if (index == null && alterationCache == null) {
+            return;
+        }
+        Set<Integer> genes = new HashSet<Integer>();
+        List<String> ids = new ArrayList<String>();
+        for (BundleEntryComponent entry : bundle.getEntry()) {
+            if (isEfficacyObservation(entry.getResource())) {
+                Observation ob = (Observation) entry.getResource();
+                // variants and performers are referenced by the resources themselves
+                TherapyRecommendation therapyRecommendation = decodeTherapyRecommendation(ob,
+                        Collections.emptyMap(), Collections.emptyMap());
+                ids.add(ob.getIdentifierFirstRep().getValue());
+                genes.addAll(entrezGeneIds(therapyRecommendation.getReasoning().getGeneticAlterations()));
+                if (index != null) {
+                    index.put(ob.getIdentifierFirstRep().getValue(), therapyRecommendation);
+                }
+            }
+        }
+        if (alterationCache != null) {
+            alterationCache.invalidate(genes, ids);
+        }
+    }
+
+    private static boolean isEfficacyObservation(Resource resource) {
+        return resource instanceof Observation && resource.getMeta().hasProfile(EFFICACY_URI)
+                && ((Observation) resource).getDerivedFrom().stream().allMatch(r -> r.getResource() != null);
+    }
+
+    /**
+     * Splits a transaction bundle into chunks that can be submitted separately. The first chunk holds all
+     * resources that may be referenced by several MTBs: Patient, Practitioners, Specimens, variants and medication
+     * changes. Every further chunk holds the DiagnosticReport of one MTB with its therapy recommendations.
+     *
+     * @param bundle transaction bundle built by {@link #buildBundle(String, List)}.
+     * @return shared chunk followed by one chunk per MTB.
+     */
+    List<Bundle> splitBundle(Bundle bundle) {
+        Bundle shared = new Bundle().setType(Bundle.BundleType.TRANSACTION);
+        List<Bundle> chunks = new ArrayList<Bundle>();
+        chunks.add(shared);
+        Map<Resource, Bundle> owners = new IdentityHashMap<Resource, Bundle>();
+        for (BundleEntryComponent entry : bundle.getEntry()) {
+            if (entry.getResource() instanceof DiagnosticReport) {
+                Bundle chunk = new Bundle().setType(Bundle.BundleType.TRANSACTION);
+                chunks.add(chunk);
+                owners.put(entry.getResource(), chunk);
+                for (Reference result : ((DiagnosticReport) entry.getResource()).getResult()) {
+                    Resource resource = (Resource) result.getResource();
+                    if (resource.getMeta().hasProfile(EFFICACY_URI)) {
+                        owners.put(resource, chunk);
+                    }
+                }
+            }
+        }
+        for (BundleEntryComponent entry : bundle.getEntry()) {
+            owners.getOrDefault(entry.getResource(), shared).addEntry(entry);
+        }
+        return chunks;
+    }
+
+    /**
+     * Builds the transaction bundle for the MTBs of a patient. All state needed while building lives in a
+     * {@link WriteContext} of this call, so concurrent calls do not interfere.
+     *
+     * @param patientId id of the patient.
+     * @param mtbs      MTBs to persist.
+     * @return transaction bundle with conditional updates for all resources.
+     */
+    Bundle buildBundle(String patientId, List<Mtb> mtbs) {
+
+        WriteContext context = new WriteContext();
+        Bundle bundle = context.bundle;
+
+        Reference fhirPatient = getOrCreatePatient(context, patientId);
+
+        // Resolve all missing publication titles at once while the bundle is built
+        Set<Integer> unresolvedPmids = new HashSet<Integer>();
+        mtbs.forEach(mtb -> mtb.getTherapyRecommendations().stream().filter(t -> t.getReferences() != null)
+                .forEach(t -> t.getReferences().stream().filter(r -> r.getName() == null)
+                        .forEach(r -> unresolvedPmids.add(r.getPmid()))));
+        CompletableFuture<Map<Integer, String>> titles = pubmedResolver.resolvePublicationsAsync(unresolvedPmids);
 
         for (Mtb mtb : mtbs) {
 
@@ -370,10 +976,10 @@ public class JsonFhirMapper {
             carePlan.setSubject(fhirPatient);
             carePlan.setIntent(CarePlanIntent.PROPOSAL);
             carePlan.setStatus(CarePlanStatus.ACTIVE);
-            carePlan.setAuthor(getOrCreatePractitioner(bundle, mtb.getAuthor()));
+            carePlan.setAuthor(getOrCreatePractitioner(context, mtb.getAuthor()));
             carePlan.getSupportingInfo().add(new Reference(diagnosticReport));
 
-            diagnosticReport.addPerformer(getOrCreatePractitioner(bundle, mtb.getAuthor()));
+            diagnosticReport.addPerformer(getOrCreatePractitioner(context, mtb.getAuthor()));
 
             diagnosticReport.getEffectiveDateTimeType().fromStringValue(mtb.getDate());
 
@@ -416,7 +1022,7 @@ public class JsonFhirMapper {
             }
 
             mtb.getSamples().forEach(sample -> diagnosticReport
-                    .addSpecimen(new Reference(specimenAdapter.process(fhirPatient, sample))));
+                    .addSpecimen(new Reference(getOrCreateSpecimen(context, fhirPatient, sample))));
 
             for (TherapyRecommendation therapyRecommendation : mtb.getTherapyRecommendations()) {
                 Observation efficacyObservation = new Observation();
@@ -428,8 +1034,7 @@ public class JsonFhirMapper {
                         .setIfNoneExist("identifier=" + therapyRecommendationUri + "|" + therapyRecommendation.getId())
                         .setMethod(Bundle.HTTPVerb.PUT);
                 diagnosticReport.addResult(new Reference(efficacyObservation));
-                efficacyObservation.getMeta().addProfile(
-                        "http://hl7.org/fhir/uv/genomics-reporting/StructureDefinition/medication-efficacy");
+                efficacyObservation.getMeta().addProfile(EFFICACY_URI);
                 efficacyObservation.setStatus(ObservationStatus.FINAL);
                 efficacyObservation.addCategory().addCoding(new Coding(ObservationCategory.LABORATORY.getSystem(),
                         ObservationCategory.LABORATORY.toCode(), ObservationCategory.LABORATORY.getDisplay()));
@@ -445,7 +1050,7 @@ public class JsonFhirMapper {
                 efficacyObservation.addIdentifier().setSystem(therapyRecommendationUri)
                         .setValue(therapyRecommendation.getId());
 
-                efficacyObservation.addPerformer(getOrCreatePractitioner(bundle, therapyRecommendation.getAuthor()));
+                efficacyObservation.addPerformer(getOrCreatePractitioner(context, therapyRecommendation.getAuthor()));
 
                 therapyRecommendation.getComment()
                         .forEach(comment -> efficacyObservation.getNote().add(new Annotation().setText(comment)));
@@ -454,7 +1059,7 @@ public class JsonFhirMapper {
                     therapyRecommendation.getReasoning().getClinicalData().forEach(clinical -> {
                         Specimen s = null;
                         if (clinical.getSampleId() != null && clinical.getSampleId().length() > 0) {
-                            s = specimenAdapter.process(fhirPatient, clinical.getSampleId());
+                            s = getOrCreateSpecimen(context, fhirPatient, clinical.getSampleId());
                         }
                         try {
                             Method m = Class.forName("fhirspark.adapter.clinicaldata." + clinical.getAttributeId())
@@ -479,17 +1084,19 @@ public class JsonFhirMapper {
 
                 if (therapyRecommendation.getReasoning().getGeneticAlterations() != null) {
                     therapyRecommendation.getReasoning().getGeneticAlterations().forEach(geneticAlteration -> {
+                        geneticAlteration.setEntrezGeneId(HgncGeneName.fixNcbiGeneId(
+                                geneticAlteration.getEntrezGeneId(), geneticAlteration.getHugoSymbol()));
                         Observation geneticVariant;
                         String uniqueString = "component-value-concept=http://www.ncbi.nlm.nih.gov/gene|"
                             + geneticAlteration.getEntrezGeneId() + "&subject="
                             + fhirPatient.getResource().getIdElement();
-                        if (uniqueAlteration.containsKey(uniqueString)) {
-                            geneticVariant = uniqueAlteration.get(uniqueString);
+                        if (context.uniqueAlteration.containsKey(uniqueString)) {
+                            geneticVariant = context.uniqueAlteration.get(uniqueString);
                         } else {
                             geneticVariant = geneticAlterationsAdapter.process(geneticAlteration);
                             geneticVariant.setId(IdType.newRandomUuid());
                             geneticVariant.setSubject(fhirPatient);
-                            uniqueAlteration.put(uniqueString, geneticVariant);
+                            context.uniqueAlteration.put(uniqueString, geneticVariant);
                             bundle.addEntry().setFullUrl(geneticVariant.getIdElement().getValue())
                                 .setResource(geneticVariant).getRequest()
                                 .setUrl("Observation?" + uniqueString)
@@ -504,11 +1111,12 @@ public class JsonFhirMapper {
 
                 if (therapyRecommendation.getReferences() != null) {
                     therapyRecommendation.getReferences().forEach(reference -> {
-                        String title = reference.getName() != null ? reference.getName()
-                                : pubmedResolver.resolvePublication(reference.getPmid());
                         Extension ex = new Extension().setUrl(RELATEDARTIFACT_URI);
                         RelatedArtifact relatedArtifact = new RelatedArtifact().setType(RelatedArtifactType.CITATION)
-                                .setUrl(PUBMED_URI + reference.getPmid()).setCitation(title);
+                                .setUrl(PUBMED_URI + reference.getPmid()).setCitation(reference.getName());
+                        if (reference.getName() == null) {
+                            context.untitled.put(relatedArtifact, reference);
+                        }
                         ex.setValue(relatedArtifact);
                         efficacyObservation.addExtension(ex);
                     });
@@ -557,18 +1165,14 @@ public class JsonFhirMapper {
 
         }
 
-        try {
-            uniqueAlteration.clear();
-            Bundle resp = client.transaction().withBundle(bundle).execute();
-
-            // Log the response
-            System.out.println(ctx.newJsonParser().setPrettyPrint(true).encodeResourceToString(resp));
-        } catch (UnprocessableEntityException entityException) {
-            FileWriter f = new FileWriter("error.json");
-            f.write(entityException.getResponseBody());
-            f.close();
-        }
+        // Titles are also stored in the incoming references, so other mappers do not resolve them again
+        Map<Integer, String> resolvedTitles = titles.join();
+        context.untitled.forEach((relatedArtifact, reference) -> {
+            reference.setName(resolvedTitles.get(reference.getPmid()));
+            relatedArtifact.setCitation(reference.getName());
+        });
 
+        return bundle;
     }
 
     /**
@@ -588,41 +1192,167 @@ public class JsonFhirMapper {
         assert therapyRecommendationId.startsWith(patientId);
         client.delete().resourceConditionalByUrl(
                 "Observation?identifier=" + therapyRecommendationUri + "|" + therapyRecommendationId).execute();
+        AlterationIndex index = alterationIndex;
+        if (index != null) {
+            index.remove(therapyRecommendationId);
+        }
+        if (alterationCache != null) {
+            alterationCache.invalidate(Collections.emptySet(), Collections.singleton(therapyRecommendationId));
+        }
     }
 
     private void deleteMtb(String patientId, String mtbId) {
         assert mtbId.startsWith("mtb_" + patientId + "_");
+        // the therapy recommendations of the MTB remain on the server and in the alteration index
         client.delete().resourceConditionalByUrl("DiagnosticReport?identifier=" + mtbUri + "|" + mtbId).execute();
     }
 
-    private Reference getOrCreatePatient(Bundle b, String patientId) {
-
-        Patient patient = new Patient();
-        patient.setId(IdType.newRandomUuid());
-        patient.getIdentifierFirstRep().setSystem(patientUri).setValue(patientId);
-        patient.getIdentifierFirstRep().setUse(IdentifierUse.USUAL);
-        patient.getIdentifierFirstRep().getType().addCoding().setSystem("http://terminology.hl7.org/CodeSystem/v2-0203")
-                .setCode("MR");
-        b.addEntry().setFullUrl(patient.getIdElement().getValue()).setResource(patient).getRequest()
-                .setUrl("Patient?identifier=" + patientUri + "|" + patientId)
-                .setIfNoneExist("identifier=" + patientUri + "|" + patientId).setMethod(Bundle.HTTPVerb.PUT);
+    private Reference getOrCreatePatient(WriteContext context, String patientId) {
+
+        Patient patient = context.patients.get(patientId);
+        if (patient == null) {
+            patient = new Patient();
+            patient.getIdentifierFirstRep().setSystem(patientUri).setValue(patientId);
+            patient.getIdentifierFirstRep().setUse(IdentifierUse.USUAL);
+            patient.getIdentifierFirstRep().getType().addCoding()
+                    .setSystem("http://terminology.hl7.org/CodeSystem/v2-0203").setCode("MR");
+            // a Patient known to the server is referenced directly instead of being updated again
+            String logicalId = logicalIds.get("Patient", patientUri, patientId);
+            if (logicalId != null) {
+                patient.setId(logicalId);
+            } else {
+                patient.setId(IdType.newRandomUuid());
+                context.bundle.addEntry().setFullUrl(patient.getIdElement().getValue()).setResource(patient)
+                        .getRequest().setUrl("Patient?identifier=" + patientUri + "|" + patientId)
+                        .setIfNoneExist("identifier=" + patientUri + "|" + patientId).setMethod(Bundle.HTTPVerb.PUT);
+            }
+            context.patients.put(patientId, patient);
+        }
 
         return new Reference(patient);
     }
 
-    private Reference getOrCreatePractitioner(Bundle b, String credentials) {
+    private Reference getOrCreatePractitioner(WriteContext context, String credentials) {
 
-        Practitioner practitioner = new Practitioner();
-        practitioner.setId(IdType.newRandomUuid());
-        practitioner.addIdentifier(new Identifier().setSystem(patientUri).setValue(credentials));
-        b.addEntry().setFullUrl(practitioner.getIdElement().getValue()).setResource(practitioner).getRequest()
-                .setUrl("Practitioner?identifier=" + patientUri + "|" + credentials)
-                .setIfNoneExist("identifier=" + patientUri + "|" + credentials).setMethod(Bundle.HTTPVerb.PUT);
+        Practitioner practitioner = context.practitioners.get(credentials);
+        if (practitioner == null) {
+            practitioner = new Practitioner();
+            practitioner.addIdentifier(new Identifier().setSystem(patientUri).setValue(credentials));
+            String logicalId = logicalIds.get("Practitioner", patientUri, credentials);
+            if (logicalId != null) {
+                practitioner.setId(logicalId);
+            } else {
+                practitioner.setId(IdType.newRandomUuid());
+                context.bundle.addEntry().setFullUrl(practitioner.getIdElement().getValue())
+                        .setResource(practitioner).getRequest()
+                        .setUrl("Practitioner?identifier=" + patientUri + "|" + credentials)
+                        .setIfNoneExist("identifier=" + patientUri + "|" + credentials)
+                        .setMethod(Bundle.HTTPVerb.PUT);
+            }
+            context.practitioners.put(credentials, practitioner);
+        }
 
         return new Reference(practitioner);
 
     }
 
+    private Specimen getOrCreateSpecimen(WriteContext context, Reference fhirPatient, String sampleId) {
+
+        Specimen specimen = context.specimens.get(sampleId);
+        if (specimen == null) {
+            specimen = specimenAdapter.process(fhirPatient, sampleId);
+            specimen.setId(IdType.newRandomUuid());
+            String condition = "identifier=" + specimenUri + "|" + sampleId + "&subject="
+                    + fhirPatient.getResource().getIdElement();
+            context.bundle.addEntry().setFullUrl(specimen.getIdElement().getValue()).setResource(specimen)
+                    .getRequest().setUrl("Specimen?" + condition).setIfNoneExist(condition)
+                    .setMethod(Bundle.HTTPVerb.PUT);
+            context.specimens.put(sampleId, specimen);
+        }
+
+        return specimen;
+
+    }
+
+    /**
+     * Loads Specimens that are referenced by DiagnosticReports or their clinical data but were not included in
+     * the search result, with a single request.
+     *
+     * @param entries search result with DiagnosticReports and their results.
+     */
+    private void resolveSpecimens(List<BundleEntryComponent> entries) {
+        Map<String, List<Reference>> unresolved = new HashMap<String, List<Reference>>();
+        for (BundleEntryComponent entry : entries) {
+            if (entry.getResource() instanceof DiagnosticReport) {
+                ((DiagnosticReport) entry.getResource()).getSpecimen()
+                        .forEach(specimen -> addUnresolved(unresolved, specimen));
+            }
+            if (entry.getResource() instanceof Observation) {
+                for (Reference member : ((Observation) entry.getResource()).getHasMember()) {
+                    if (member.getResource() instanceof Observation) {
+                        addUnresolved(unresolved, ((Observation) member.getResource()).getSpecimen());
+                    }
+                }
+            }
+        }
+        if (unresolved.isEmpty()) {
+            return;
+        }
+        Bundle specimens = client.search().forResource(Specimen.class)
+                .where(IAnyResource.RES_ID.exactly().codes(unresolved.keySet())).count(unresolved.size())
+                .returnBundle(Bundle.class).execute();
+        for (BundleEntryComponent entry : specimens.getEntry()) {
+            List<Reference> references = unresolved.get(entry.getResource().getIdElement().getIdPart());
+            if (references != null) {
+                references.forEach(reference -> reference.setResource(entry.getResource()));
+            }
+        }
+    }
+
+    private static void addUnresolved(Map<String, List<Reference>> unresolved, Reference reference) {
+        if (reference.getResource() == null && reference.hasReference()
+                && reference.getReference().startsWith("Specimen/")) {
+            unresolved.computeIfAbsent(new IdType(reference.getReference()).getIdPart(),
+                    id -> new ArrayList<Reference>()).add(reference);
+        }
+    }
+
+    /**
+     * Maps the performers of DiagnosticReports and Observations to their credentials. Practitioners included in
+     * the search result are used directly, only the others are resolved.
+     *
+     * @param entries search result with DiagnosticReports and Observations.
+     * @return map from the reference of a performer to its credentials.
+     */
+    private Map<String, String> resolveAuthors(List<BundleEntryComponent> entries) {
+        Map<String, String> authors = new HashMap<String, String>();
+        Set<String> missing = new HashSet<String>();
+        for (BundleEntryComponent entry : entries) {
+            Reference performer = null;
+            if (entry.getResource() instanceof DiagnosticReport
+                    && ((DiagnosticReport) entry.getResource()).hasPerformer()) {
+                performer = ((DiagnosticReport) entry.getResource()).getPerformerFirstRep();
+            }
+            if (entry.getResource() instanceof Observation && ((Observation) entry.getResource()).hasPerformer()) {
+                performer = ((Observation) entry.getResource()).getPerformerFirstRep();
+            }
+            if (performer == null) {
+                continue;
+            }
+            if (performer.getResource() instanceof Practitioner
+                    && ((Practitioner) performer.getResource()).getIdentifierFirstRep().hasValue()) {
+                Practitioner practitioner = (Practitioner) performer.getResource();
+                authors.put(performer.getReference(), practitioner.getIdentifierFirstRep().getValue());
+                logicalIds.put(practitioner.getIdElement(), practitioner.getIdentifierFirstRep().getSystem(),
+                        practitioner.getIdentifierFirstRep().getValue());
+            } else {
+                missing.add(performer.getReference());
+            }
+        }
+        authors.putAll(practitionerResolver.resolve(missing));
+        return authors;
+    }
+
     private String harmonizeId(IAnyResource resource) {
         if (resource.getIdElement().getValue().startsWith("urn:uuid:")) {
             return resource.getIdElement().getValue();
@@ -639,33 +1369,15 @@ public class JsonFhirMapper {
      */
     public Collection<fhirspark.restmodel.Reference> getPmidsByAlteration(List<GeneticAlteration> alterations) {
 
-        Set<String> entrez = new HashSet<String>();
-        for (GeneticAlteration a : alterations) {
-            entrez.add(String.valueOf(a.getEntrezGeneId()));
+        AlterationIndex index = alterationIndex;
+        if (index != null && index.isReady()) {
+            return index.getReferences(entrezGeneIds(alterations));
         }
 
-        Bundle bStuff = (Bundle) client.search().forResource(Observation.class)
-                .where(new TokenClientParam("component-value-concept").exactly()
-                        .systemAndValues("http://www.ncbi.nlm.nih.gov/gene", new ArrayList<String>(entrez)))
-                .prettyPrint().revInclude(Observation.INCLUDE_DERIVED_FROM).execute();
-
+        // the publications are taken from the recommendations, so both share the cached results per gene
         Map<Integer, fhirspark.restmodel.Reference> refMap = new HashMap<Integer, fhirspark.restmodel.Reference>();
-
-        for (BundleEntryComponent bec : bStuff.getEntry()) {
-            Observation o = (Observation) bec.getResource();
-            if (!o.getMeta().getProfile().get(0)
-                    .equals("http://hl7.org/fhir/uv/genomics-reporting/StructureDefinition/medication-efficacy")) {
-                continue;
-            }
-            o.getExtensionsByUrl(RELATEDARTIFACT_URI).forEach(relatedArtifact -> {
-                if (((RelatedArtifact) relatedArtifact.getValue()).getType() == RelatedArtifactType.CITATION) {
-                    Integer pmid = Integer.valueOf(
-                            ((RelatedArtifact) relatedArtifact.getValue()).getUrl().replaceFirst(PUBMED_URI, ""));
-                    refMap.put(pmid, new fhirspark.restmodel.Reference().withPmid(pmid)
-                            .withName(((RelatedArtifact) relatedArtifact.getValue()).getCitation()));
-                }
-            });
-        }
+        getTherapyRecommendationsByAlteration(alterations).forEach(therapyRecommendation -> therapyRecommendation
+                .getReferences().forEach(reference -> refMap.put(reference.getPmid(), reference)));
 
         return refMap.values();
 
@@ -681,118 +1393,220 @@ public class JsonFhirMapper {
     public Collection<TherapyRecommendation> getTherapyRecommendationsByAlteration(
             List<GeneticAlteration> alterations) {
 
-        Set<String> entrez = new HashSet<String>();
-        for (GeneticAlteration a : alterations) {
-            entrez.add(String.valueOf(a.getEntrezGeneId()));
+        Set<Integer> genes = entrezGeneIds(alterations);
+        AlterationIndex index = alterationIndex;
+        if (index != null && index.isReady()) {
+            return index.getTherapyRecommendations(genes);
+        }
+        if (alterationCache == null) {
+            return searchTherapyRecommendations(genes).values();
+        }
+
+        Map<Integer, Map<String, TherapyRecommendation>> perGene =
+                new HashMap<Integer, Map<String, TherapyRecommendation>>(alterationCache.getAllPresent(genes));
+        Set<Integer> missing = new HashSet<Integer>(genes);
+        missing.removeAll(perGene.keySet());
+        if (!missing.isEmpty()) {
+            long generation = alterationCache.generation();
+            Map<Integer, Map<String, TherapyRecommendation>> found =
+                    new HashMap<Integer, Map<String, TherapyRecommendation>>();
+            missing.forEach(gene -> found.put(gene, new HashMap<String, TherapyRecommendation>()));
+            searchTherapyRecommendations(missing).forEach((id, therapyRecommendation) -> entrezGeneIds(
+                    therapyRecommendation.getReasoning().getGeneticAlterations()).stream().filter(found::containsKey)
+                    .forEach(gene -> found.get(gene).put(id, therapyRecommendation)));
+            alterationCache.putAll(found, generation);
+            perGene.putAll(found);
+        }
+
+        Map<String, TherapyRecommendation> tcMap = new HashMap<String, TherapyRecommendation>();
+        perGene.values().forEach(tcMap::putAll);
+        return tcMap.values();
+
+    }
+
+    private Map<String, TherapyRecommendation> searchTherapyRecommendations(Set<Integer> genes) {
+
+        if (genes.isEmpty()) {
+            return Collections.emptyMap();
         }
 
         Bundle bStuff = (Bundle) client.search().forResource(Observation.class)
                 .where(new TokenClientParam("component-value-concept").exactly()
-                        .systemAndValues("http://www.ncbi.nlm.nih.gov/gene", new ArrayList<String>(entrez)))
-                .prettyPrint().revInclude(Observation.INCLUDE_DERIVED_FROM).execute();
+                        .systemAndValues("http://www.ncbi.nlm.nih.gov/gene", toStrings(genes)))
+                .count(searchPageSize).revInclude(Observation.INCLUDE_DERIVED_FROM).execute();
 
-        Map<String, TherapyRecommendation> tcMap = new HashMap<String, TherapyRecommendation>();
+        List<BundleEntryComponent> entries = new ArrayList<BundleEntryComponent>();
+        try (SearchPages pages = pages(bStuff)) {
+            pages.forEach(page -> entries.addAll(page.getEntry()));
+        }
 
-        for (BundleEntryComponent bec : bStuff.getEntry()) {
-            Observation ob = (Observation) bec.getResource();
-            if (!ob.getMeta().getProfile().get(0)
-                    .equals("http://hl7.org/fhir/uv/genomics-reporting/StructureDefinition/medication-efficacy")) {
-                continue;
+        Map<String, TherapyRecommendation> tcMap = new HashMap<String, TherapyRecommendation>();
+        Map<String, String> authors = resolveAuthors(entries);
+        // a revincluded recommendation may arrive on another page than the variants it was derived from
+        Map<String, Resource> resources = new HashMap<String, Resource>();
+        entries.forEach(bec -> resources.put(
+                bec.getResource().getIdElement().toUnqualifiedVersionless().getValue(), bec.getResource()));
+
+        for (BundleEntryComponent bec : entries) {
+            if (bec.getResource() instanceof Observation && bec.getResource().getMeta().hasProfile(EFFICACY_URI)) {
+                Observation ob = (Observation) bec.getResource();
+                tcMap.put(ob.getIdentifierFirstRep().getValue(), decodeTherapyRecommendation(ob, authors, resources));
             }
+        }
+
+        return tcMap;
 
-            TherapyRecommendation therapyRecommendation = new TherapyRecommendation()
-                    .withComment(new ArrayList<String>()).withReasoning(new Reasoning());
-            List<ClinicalDatum> clinicalData = new ArrayList<ClinicalDatum>();
-            List<GeneticAlteration> geneticAlterations = new ArrayList<GeneticAlteration>();
-            therapyRecommendation.getReasoning().withClinicalData(clinicalData)
-                    .withGeneticAlterations(geneticAlterations);
+    }
 
-            if (ob.hasPerformer()) {
-                Bundle b2 = (Bundle) client.search().forResource(Practitioner.class)
-                        .where(new TokenClientParam("_id").exactly().code(ob.getPerformerFirstRep().getReference()))
-                        .prettyPrint().execute();
-                Practitioner author = (Practitioner) b2.getEntryFirstRep().getResource();
-                therapyRecommendation.setAuthor(author.getIdentifierFirstRep().getValue());
+    /**
+     *
+     * @param ob        medication-efficacy Observation.
+     * @param resources resources of the search by id, used for references that are not resolved by the parser.
+     * @return variants the recommendation was derived from, references that cannot be resolved are skipped.
+     */
+    private static List<Observation> derivedVariants(Observation ob, Map<String, Resource> resources) {
+        List<Observation> variants = new ArrayList<Observation>();
+        for (Reference reference : ob.getDerivedFrom()) {
+            IBaseResource resource = reference.getResource() != null ? reference.getResource()
+                    : resources.get(reference.getReferenceElement().toUnqualifiedVersionless().getValue());
+            if (resource instanceof Observation) {
+                variants.add((Observation) resource);
             }
+        }
+        return variants;
+    }
 
-            tcMap.put(ob.getIdentifierFirstRep().getValue(), therapyRecommendation);
+    private static Set<Integer> entrezGeneIds(List<GeneticAlteration> alterations) {
+        Set<Integer> entrez = new HashSet<Integer>();
+        for (GeneticAlteration a : alterations) {
+            Integer ncbiGeneId = HgncGeneName.fixNcbiGeneId(a.getEntrezGeneId(), a.getHugoSymbol());
+            // alterations without known gene cannot match a variant
+            if (ncbiGeneId != null) {
+                entrez.add(ncbiGeneId);
+            }
+        }
+        return entrez;
+    }
 
+    private static List<String> toStrings(Set<Integer> entrezGeneIds) {
+        List<String> values = new ArrayList<String>();
+        entrezGeneIds.forEach(id -> values.add(String.valueOf(id)));
+        return values;
+    }
 
-            List<Treatment> treatments = new ArrayList<Treatment>();
-            therapyRecommendation.setTreatments(treatments);
+    /**
+     * Decodes a medication-efficacy Observation with its variants into the therapy recommendation used by
+     * the alteration endpoints.
+     *
+     * @param ob        medication-efficacy Observation.
+     * @param authors   credentials of performers that are not contained in the Observation by their reference.
+     * @param resources resources of the search by id, resolve derivedFrom references across pages.
+     * @return the therapy recommendation.
+     */
+    private TherapyRecommendation decodeTherapyRecommendation(Observation ob, Map<String, String> authors,
+            Map<String, Resource> resources) {
+        TherapyRecommendation therapyRecommendation = new TherapyRecommendation()
+                .withComment(new ArrayList<String>()).withReasoning(new Reasoning());
+        List<ClinicalDatum> clinicalData = new ArrayList<ClinicalDatum>();
+        List<GeneticAlteration> geneticAlterations = new ArrayList<GeneticAlteration>();
+        therapyRecommendation.getReasoning().withClinicalData(clinicalData)
+                .withGeneticAlterations(geneticAlterations);
+
+        if (ob.hasPerformer()) {
+            Reference performer = ob.getPerformerFirstRep();
+            therapyRecommendation.setAuthor(performer.getResource() instanceof Practitioner
+                    ? ((Practitioner) performer.getResource()).getIdentifierFirstRep().getValue()
+                    : authors.get(performer.getReference()));
+        }
 
-            List<fhirspark.restmodel.Reference> references = new ArrayList<fhirspark.restmodel.Reference>();
-            ob.getExtensionsByUrl(RELATEDARTIFACT_URI).forEach(relatedArtifact -> {
-                if (((RelatedArtifact) relatedArtifact.getValue()).getType() == RelatedArtifactType.CITATION) {
-                    references.add(new fhirspark.restmodel.Reference()
-                            .withPmid(Integer.valueOf(((RelatedArtifact) relatedArtifact.getValue()).getUrl()
-                                    .replaceFirst(PUBMED_URI, "")))
-                            .withName(((RelatedArtifact) relatedArtifact.getValue()).getCitation()));
-                }
-            });
+        List<Treatment> treatments = new ArrayList<Treatment>();
+        therapyRecommendation.setTreatments(treatments);
 
-            therapyRecommendation.setReferences(references);
+        List<fhirspark.restmodel.Reference> references = new ArrayList<fhirspark.restmodel.Reference>();
+        ob.getExtensionsByUrl(RELATEDARTIFACT_URI).forEach(relatedArtifact -> {
+            if (((RelatedArtifact) relatedArtifact.getValue()).getType() == RelatedArtifactType.CITATION) {
+                references.add(new fhirspark.restmodel.Reference()
+                        .withPmid(Integer.valueOf(((RelatedArtifact) relatedArtifact.getValue()).getUrl()
+                                .replaceFirst(PUBMED_URI, "")))
+                        .withName(((RelatedArtifact) relatedArtifact.getValue()).getCitation()));
+            }
+        });
 
-            ob.getComponent().forEach(result -> {
-                if (result.getCode().getCodingFirstRep().getCode().equals("93044-6")) {
-                    therapyRecommendation
-                            .setEvidenceLevel(result.getValueCodeableConcept().getCodingFirstRep().getCode());
-                }
-                if (result.getCode().getCodingFirstRep().getCode().equals("51963-7")) {
-                    therapyRecommendation.getTreatments()
-                            .add(new Treatment()
-                                    .withNcitCode(result.getValueCodeableConcept().getCodingFirstRep().getCode())
-                                    .withName(result.getValueCodeableConcept().getCodingFirstRep().getDisplay()));
-                }
-            });
+        therapyRecommendation.setReferences(references);
 
-            ob.getDerivedFrom().forEach(reference1 -> {
-                GeneticAlteration g = new GeneticAlteration();
-                ((Observation) reference1.getResource()).getComponent().forEach(variant -> {
-                    switch (variant.getCode().getCodingFirstRep().getCode()) {
-                        case "48005-3":
-                            g.setAlteration(variant.getValueCodeableConcept().getCodingFirstRep().getCode()
-                                    .replaceFirst("p.", ""));
-                            break;
-                        case "81252-9":
-                            variant.getValueCodeableConcept().getCoding().forEach(coding -> {
-                                switch (coding.getSystem()) {
-                                    case "http://www.ncbi.nlm.nih.gov/gene":
-                                        g.setEntrezGeneId(Integer.valueOf(coding.getCode()));
-                                        break;
-                                    default:
-                                        break;
-                                }
-                            });
-                            break;
-                        case "48018-6":
-                            g.setHugoSymbol(variant.getValueCodeableConcept().getCodingFirstRep().getDisplay());
-                            break;
-                        case "62378-5":
-                            switch (variant.getValueCodeableConcept().getCodingFirstRep().getCode()) {
-                                case "LA14033-7":
-                                    g.setAlteration("Amplification");
-                                    break;
-                                case "LA14034-5":
-                                    g.setAlteration("Deletion");
+        ob.getComponent().forEach(result -> {
+            if (result.getCode().getCodingFirstRep().getCode().equals("93044-6")) {
+                therapyRecommendation
+                        .setEvidenceLevel(result.getValueCodeableConcept().getCodingFirstRep().getCode());
+            }
+            if (result.getCode().getCodingFirstRep().getCode().equals("51963-7")) {
+                therapyRecommendation.getTreatments()
+                        .add(new Treatment()
+                                .withNcitCode(result.getValueCodeableConcept().getCodingFirstRep().getCode())
+                                .withName(result.getValueCodeableConcept().getCodingFirstRep().getDisplay()));
+            }
+        });
+
+        derivedVariants(ob, resources).forEach(derived -> {
+            GeneticAlteration g = new GeneticAlteration();
+            derived.getComponent().forEach(variant -> {
+                switch (variant.getCode().getCodingFirstRep().getCode()) {
+                    case "48005-3":
+                        g.setAlteration(variant.getValueCodeableConcept().getCodingFirstRep().getCode()
+                                .replaceFirst("p.", ""));
+                        break;
+                    case "81252-9":
+                        variant.getValueCodeableConcept().getCoding().forEach(coding -> {
+                            switch (coding.getSystem()) {
+                                case "http://www.ncbi.nlm.nih.gov/gene":
+                                    g.setEntrezGeneId(Integer.valueOf(coding.getCode()));
                                     break;
                                 default:
                                     break;
                             }
-                            break;
-                        default:
-                            break;
-                    }
-                });
-                geneticAlterations.add(g);
+                        });
+                        break;
+                    case "48018-6":
+                        g.setHugoSymbol(variant.getValueCodeableConcept().getCodingFirstRep().getDisplay());
+                        break;
+                    case "62378-5":
+                        switch (variant.getValueCodeableConcept().getCodingFirstRep().getCode()) {
+                            case "LA14033-7":
+                                g.setAlteration("Amplification");
+                                break;
+                            case "LA14034-5":
+                                g.setAlteration("Deletion");
+                                break;
+                            default:
+                                break;
+                        }
+                        break;
+                    default:
+                        break;
+                }
             });
+            geneticAlterations.add(g);
+        });
 
-            ob.getNote().forEach(note -> therapyRecommendation.getComment().add(note.getText()));
+        ob.getNote().forEach(note -> therapyRecommendation.getComment().add(note.getText()));
 
-        }
-
-        return tcMap.values();
+        return therapyRecommendation;
+    }
 
+    /**
+     * Mutable state of a single {@link #buildBundle(String, List)} call.
+     */
+    private static final class WriteContext {
+        private final Bundle bundle = new Bundle().setType(Bundle.BundleType.TRANSACTION);
+        // variant Observations by their conditional URL, so each variant is only written once per bundle
+        private final Map<String, Observation> uniqueAlteration = new HashMap<String, Observation>();
+        // resources that are referenced several times but written only once per bundle
+        private final Map<String, Patient> patients = new HashMap<String, Patient>();
+        private final Map<String, Practitioner> practitioners = new HashMap<String, Practitioner>();
+        private final Map<String, Specimen> specimens = new HashMap<String, Specimen>();
+        // citations whose title is resolved after the bundle was built
+        private final Map<RelatedArtifact, fhirspark.restmodel.Reference> untitled =
+                new IdentityHashMap<RelatedArtifact, fhirspark.restmodel.Reference>();
     }
 
 }
@@ -3,8 +3,6 @@ package fhirspark;
 import ca.uhn.hl7v2.DefaultHapiContext;
 import ca.uhn.hl7v2.HL7Exception;
 import ca.uhn.hl7v2.HapiContext;
-import ca.uhn.hl7v2.app.Connection;
-import ca.uhn.hl7v2.llp.LLPException;
 import ca.uhn.hl7v2.model.DataTypeException;
 import ca.uhn.hl7v2.model.v281.datatype.CWE;
 import ca.uhn.hl7v2.model.v281.datatype.NM;
@@ -18,46 +16,78 @@ import ca.uhn.hl7v2.model.v281.segment.SPM;
 import fhirspark.resolver.HgncGeneName;
 import fhirspark.resolver.OncoKbDrug;
 import fhirspark.resolver.PubmedPublication;
-import fhirspark.resolver.model.Genenames;
 import fhirspark.restmodel.GeneticAlteration;
 import fhirspark.restmodel.Mtb;
 import fhirspark.restmodel.Reference;
 import fhirspark.restmodel.TherapyRecommendation;
 import fhirspark.restmodel.Treatment;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
- * Fulfils a mapping to the HL7 Version 2 standard and transfers the message to
- * a configured target.
+ * Fulfils a mapping to the HL7 Version 2 standard and queues the message for
+ * every configured target.
  */
 public class JsonHl7v2Mapper {
 
     private HapiContext context = new DefaultHapiContext();
-    private Connection connection;
-    private PubmedPublication pubmedResolver = new PubmedPublication();
+    private List<Hl7v2Outbox> outboxes = new ArrayList<Hl7v2Outbox>();
+    private PubmedPublication pubmedResolver;
 
-    public JsonHl7v2Mapper(Settings settings) throws HL7Exception {
-        this.connection = context.newClient(settings.getHl7v2config().get(0).getServer(),
-                settings.getHl7v2config().get(0).getPort(), false);
+    /**
+     *
+     * @param settings       Settings object with containing configuration
+     * @param pubmedResolver resolver for publication titles shared with the other mappers
+     */
+    public JsonHl7v2Mapper(Settings settings, PubmedPublication pubmedResolver) {
+        this.pubmedResolver = pubmedResolver;
+        for (Hl7v2config target : settings.getHl7v2config()) {
+            if (target.getSendv2()) {
+                Hl7v2Outbox outbox = new Hl7v2Outbox(context, target);
+                outbox.start();
+                outboxes.add(outbox);
+            }
+        }
+    }
+
+    public List<Hl7v2Outbox> getOutboxes() {
+        return outboxes;
     }
 
     /**
+     * Checks whether a message for the given MTBs can be queued for every target. MTBs that are not finished do
+     * not create a message and are always accepted.
+     *
+     * @param mtbs mtb entries of the patient.
+     * @return false if a finished MTB would be dropped by at least one full outbox.
+     */
+    public boolean canQueue(List<Mtb> mtbs) {
+        return mtbs.stream().noneMatch(JsonHl7v2Mapper::isFinal)
+                || outboxes.stream().allMatch(Hl7v2Outbox::hasCapacity);
+    }
+
+    private static boolean isFinal(Mtb mtb) {
+        return mtb.getMtbState() != null && mtb.getMtbState().toUpperCase().equals("FINAL");
+    }
+
+    /**
+     * Maps the finished MTBs to an ORU message and stores it in the outbox of every target. Each target
+     * receives the message asynchronously and independently of the others.
      *
      * @param patientId id of the patient.
      * @param mtbs      mtb entries of the patient.
      * @throws HL7Exception General Exception.
-     * @throws IOException  Network Exception.
-     * @throws LLPException Exception when sending message.
+     * @throws IOException  Exception when building the message.
      */
-    public void toHl7v2Oru(String patientId, List<Mtb> mtbs) throws HL7Exception, IOException, LLPException {
+    public void toHl7v2Oru(String patientId, List<Mtb> mtbs) throws HL7Exception, IOException {
         ORU_R01 oru = new ORU_R01();
         oru.initQuickstart("ORU", "R01", "P");
 
         for (Mtb mtb : mtbs) {
 
             // Send only finished MTB results
-            if (mtb.getMtbState() == null || !mtb.getMtbState().toUpperCase().equals("FINAL")) {
+            if (!isFinal(mtb)) {
                 continue;
             }
 
@@ -162,7 +192,9 @@ public class JsonHl7v2Mapper {
         }
 
         if (oru.getPATIENT_RESULTReps() > 0) {
-            connection.getInitiator().sendAndReceive(oru.getMessage());
+            for (Hl7v2Outbox outbox : outboxes) {
+                outbox.enqueue(oru.getMessage());
+            }
         }
 
     }
@@ -183,6 +215,7 @@ public class JsonHl7v2Mapper {
     }
 
     private void addAlteration(ORU_R01 oru, ORU_R01_PATIENT_RESULT result, GeneticAlteration g) {
+        g.setEntrezGeneId(HgncGeneName.fixNcbiGeneId(g.getEntrezGeneId(), g.getHugoSymbol()));
         try {
             int orderNumber = result.getORDER_OBSERVATIONReps();
             OBR variant = result.insertORDER_OBSERVATION(orderNumber).getOBR();
@@ -264,10 +297,9 @@ public class JsonHl7v2Mapper {
             hgnc.getObservationIdentifier().getNameOfCodingSystem().setValue("LN");
             hgnc.getValueType().setValue("CWE");
             CWE hgncValue = new CWE(oru);
-            Genenames genenames = HgncGeneName.resolve(g.getEntrezGeneId());
             hgncValue.getCodingSystemOID().setValue("2.16.840.1.113883.6.281");
-            hgncValue.getIdentifier().setValue(genenames.getHgncId());
-            hgncValue.getText().setValue(genenames.getApprovedSymbol());
+            hgncValue.getIdentifier().setValue(HgncGeneName.hgncId(g.getEntrezGeneId()));
+            hgncValue.getText().setValue(HgncGeneName.approvedSymbol(g.getEntrezGeneId()));
             hgnc.insertObservationValue(0).setData(hgncValue);
 
             if (g.getAlt() != null) {
@@ -380,7 +412,7 @@ public class JsonHl7v2Mapper {
     private void addTreatment(ORU_R01 oru, ORU_R01_PATIENT_RESULT result, int position, Treatment treatment) {
         try {
             String ncitCode = treatment.getNcitCode() != null ? treatment.getNcitCode()
-                    : OncoKbDrug.resolve(treatment.getName()).getNcitCode();
+                    : OncoKbDrug.ncitCode(treatment.getName(), treatment.getSynonyms());
             OBX treat = result.getORDER_OBSERVATION(position)
                     .getOBSERVATION(result.getORDER_OBSERVATION(position).getOBSERVATIONReps()).getOBX();
             treat.getSetIDOBX().setValue(String.valueOf(result.getORDER_OBSERVATION(position).getOBSERVATIONReps()));
@@ -0,0 +1,59 @@
+package fhirspark;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.hl7.fhir.instance.model.api.IIdType;
+
+/**
+ * Remembers the logical ids of Patients and Practitioners on the FHIR server by their business identifier, so
+ * they can be referenced directly instead of being searched or conditionally updated on every request.
+ */
+public class LogicalIdCache {
+
+    private static final long MAXIMUM_SIZE = 10000;
+    private static final long EXPIRE_AFTER_MINUTES = 10;
+
+    private final Cache<List<String>, String> ids = CacheBuilder.newBuilder().maximumSize(MAXIMUM_SIZE)
+            .expireAfterWrite(EXPIRE_AFTER_MINUTES, TimeUnit.MINUTES).build();
+
+    /**
+     *
+     * @param resourceType type of the resource, e.g. Patient.
+     * @param system       system of the identifier.
+     * @param value        value of the identifier.
+     * @return reference like Patient/123 or null if the id is unknown.
+     */
+    public String get(String resourceType, String system, String value) {
+        return ids.getIfPresent(Arrays.asList(resourceType, system, value));
+    }
+
+    /**
+     * Stores the logical id of a resource read from or written to the FHIR server.
+     *
+     * @param id     id of the resource including its type, a base URL and version are ignored.
+     * @param system system of the identifier.
+     * @param value  value of the identifier.
+     */
+    public void put(IIdType id, String system, String value) {
+        // placeholders of a transaction like urn:uuid are not logical ids
+        if (id.hasResourceType() && id.hasIdPart() && !id.getValue().startsWith("urn:") && system != null
+                && value != null) {
+            ids.put(Arrays.asList(id.getResourceType(), system, value), id.toUnqualifiedVersionless().getValue());
+        }
+    }
+
+    /**
+     * Forgets the given logical ids, e.g. after a transaction that referenced them failed because one of them no
+     * longer exists.
+     *
+     * @param references references like Patient/123.
+     */
+    public void invalidate(Collection<String> references) {
+        ids.asMap().values().removeAll(references);
+    }
+
+}
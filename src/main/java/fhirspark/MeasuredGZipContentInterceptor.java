@@ -0,0 +1,41 @@
+package fhirspark;
+
+import ca.uhn.fhir.rest.client.apache.ApacheHttpRequest;
+import ca.uhn.fhir.rest.client.apache.GZipContentInterceptor;
+import ca.uhn.fhir.rest.client.api.IHttpRequest;
+import java.util.Locale;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.client.methods.HttpRequestBase;
+
+/**
+ * Compresses request bodies to the FHIR server like {@link GZipContentInterceptor} and logs their original size,
+ * compressed size and ratio, in the same form as the compressed REST responses.
+ */
+public class MeasuredGZipContentInterceptor extends GZipContentInterceptor {
+
+    private static final int PERCENT = 100;
+
+    @Override
+    public void interceptRequest(IHttpRequest theRequest) {
+        HttpRequestBase request = ((ApacheHttpRequest) theRequest).getApacheRequest();
+        long length = contentLength(request);
+        super.interceptRequest(theRequest);
+        long compressedLength = contentLength(request);
+        // bodies of unknown length are not measured, a body that was not compressed keeps its length
+        if (length > 0 && compressedLength >= 0 && request.containsHeader("Content-Encoding")) {
+            System.out.println("Compressed " + request.getMethod() + " " + request.getURI() + " from " + length
+                    + " to " + compressedLength + " bytes (" + String.format(Locale.ROOT, "%.1f",
+                    (double) compressedLength * PERCENT / length) + "%)");
+        }
+    }
+
+    private static long contentLength(HttpRequestBase request) {
+        if (!(request instanceof HttpEntityEnclosingRequest)) {
+            return -1;
+        }
+        HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+        return entity == null ? -1 : entity.getContentLength();
+    }
+
+}
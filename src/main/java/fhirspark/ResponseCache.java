@@ -0,0 +1,170 @@
+package fhirspark;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+
+/**
+ * Bounded LRU cache of serialized responses per patient, tagged with the version token they were built for.
+ */
+public class ResponseCache {
+
+    // Guava splits the maximum weight between its segments, larger entries would be evicted right away
+    private static final int SEGMENTS = 4;
+
+    private final Cache<String, CachedResponse> cache;
+    private final long maximumEntryBytes;
+
+    /**
+     *
+     * @param maximumBytes upper bound for the summed size of all cached responses.
+     */
+    public ResponseCache(long maximumBytes) {
+        this.cache = CacheBuilder.newBuilder().maximumWeight(maximumBytes).concurrencyLevel(SEGMENTS)
+                .weigher((String patientId, CachedResponse response) -> response.body.length).build();
+        this.maximumEntryBytes = maximumBytes / SEGMENTS;
+    }
+
+    /**
+     *
+     * @param patientId    id of the patient.
+     * @param versionToken current version token of the patient's data.
+     * @return the cached response or null if it is missing or stale.
+     */
+    public byte[] getIfPresent(String patientId, String versionToken) {
+        CachedResponse cached = cache.getIfPresent(patientId);
+        return cached != null && cached.versionToken.equals(versionToken) ? cached.body : null;
+    }
+
+    /**
+     * Returns the cached response of the patient if it was built for the given version token. Otherwise the
+     * response is built and stored for that token.
+     *
+     * @param patientId    id of the patient.
+     * @param versionToken current version token of the patient's data.
+     * @param builder      builds the response if it is missing or stale.
+     * @return serialized response.
+     * @throws Exception Exception thrown by the builder.
+     */
+    public byte[] get(String patientId, String versionToken, Callable<byte[]> builder) throws Exception {
+        byte[] cached = getIfPresent(patientId, versionToken);
+        if (cached != null) {
+            return cached;
+        }
+        byte[] body = builder.call();
+        cache.put(patientId, new CachedResponse(versionToken, body));
+        return body;
+    }
+
+    /**
+     * Streams a response to the client and keeps a copy of it for the given version token, unless it grows too
+     * large to be cached. Until then, the copy is held in memory next to the streamed response, so a request needs
+     * up to the per entry limit of a quarter of the cache size; nothing is copied if caching is disabled.
+     *
+     * @param patientId    id of the patient.
+     * @param versionToken current version token of the patient's data.
+     * @param out          body of the response.
+     * @param writer       writes the response.
+     * @throws IOException if the response cannot be written.
+     */
+    public void stream(String patientId, String versionToken, OutputStream out, BodyWriter writer)
+            throws IOException {
+        CopyingOutputStream copy = new CopyingOutputStream(out, maximumEntryBytes);
+        writer.write(copy);
+        if (copy.copy != null) {
+            cache.put(patientId, new CachedResponse(versionToken, copy.copy.toByteArray()));
+        }
+    }
+
+    /**
+     * Removes the cached response of the patient, e.g. after it was modified.
+     *
+     * @param patientId id of the patient.
+     */
+    public void invalidate(String patientId) {
+        cache.invalidate(patientId);
+    }
+
+    /**
+     * Checks an If-None-Match header against the current entity tag. The tag of the compressed representation
+     * matches as well.
+     *
+     * @param ifNoneMatch value of the If-None-Match header, may be null.
+     * @param etag        current entity tag of the identity representation including quotes.
+     * @return true if the client already holds the current representation.
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        String compressedEtag = etag.substring(0, etag.length() - 1) + ResponseCompression.ETAG_SUFFIX + "\"";
+        for (String tag : ifNoneMatch.split(",")) {
+            String trimmed = tag.trim();
+            String strong = trimmed.replaceFirst("^W/", "");
+            if ("*".equals(trimmed) || strong.equals(etag) || strong.equals(compressedEtag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes a response body to a stream.
+     */
+    @FunctionalInterface
+    public interface BodyWriter {
+        /**
+         *
+         * @param out body of the response.
+         * @throws IOException if the response cannot be written.
+         */
+        void write(OutputStream out) throws IOException;
+    }
+
+    private static final class CopyingOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final long limit;
+        // dropped once the response would exceed the limit
+        private ByteArrayOutputStream copy;
+
+        private CopyingOutputStream(OutputStream out, long limit) {
+            this.out = out;
+            this.limit = limit;
+            this.copy = limit > 0 ? new ByteArrayOutputStream() : null;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (copy != null && copy.size() + len > limit) {
+                copy = null;
+            } else if (copy != null) {
+                copy.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+
+    private static final class CachedResponse {
+        private final String versionToken;
+        private final byte[] body;
+
+        private CachedResponse(String versionToken, byte[] body) {
+            this.versionToken = versionToken;
+            this.body = body;
+        }
+    }
+
+}
@@ -0,0 +1,211 @@
+package fhirspark;
+
+import com.google.common.io.CountingOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import spark.Request;
+import spark.Response;
+
+/**
+ * Gzip compression of large JSON responses for clients that accept it. Spark would compress the body itself once
+ * the Content-Encoding header is set, but without a Content-Length and without telling the compressed size, so
+ * the body is compressed here and written to the servlet response directly.
+ */
+public class ResponseCompression {
+
+    /**
+     * Appended to a strong entity tag of a compressed body, so the compressed and the identity representation have
+     * different strong validators.
+     */
+    public static final String ETAG_SUFFIX = "-gzip";
+
+    private static final String GZIP = "gzip";
+    private static final int PERCENT = 100;
+
+    private final int threshold;
+
+    /**
+     *
+     * @param threshold minimum size of a body in bytes to be compressed. Null or negative disables compression.
+     */
+    public ResponseCompression(Integer threshold) {
+        this.threshold = threshold != null ? threshold : -1;
+    }
+
+    /**
+     * Sends the body compressed if the client accepts gzip and the body is large enough. Status, headers and
+     * content type have to be set before.
+     *
+     * @param req  incoming request.
+     * @param res  response of the route.
+     * @param body serialized response.
+     * @return value to return from the route, either the uncompressed body or an empty string if the compressed
+     *         body was already written.
+     * @throws IOException if the compressed body cannot be written.
+     */
+    public Object send(Request req, Response res, byte[] body) throws IOException {
+        if (threshold < 0) {
+            return body;
+        }
+        res.header("Vary", "Accept-Encoding");
+        if (body.length < threshold || !acceptsGzip(req.headers("Accept-Encoding"))) {
+            return body;
+        }
+        byte[] compressed = gzip(body);
+        log(req, body.length, compressed.length);
+        HttpServletResponse raw = res.raw();
+        setGzipEncoding(raw);
+        raw.setContentLength(compressed.length);
+        raw.getOutputStream().write(compressed);
+        // commits the response, so Spark does not serialize the returned value again
+        raw.flushBuffer();
+        return "";
+    }
+
+    /**
+     * Opens the body of the response for streaming. Up to the threshold the body is held back, so small bodies are
+     * still sent uncompressed with a Content-Length. Status, headers and content type have to be set before.
+     *
+     * @param req incoming request.
+     * @param res response of the route.
+     * @return body of the response, {@link Body#finish()} has to be called once it is complete.
+     * @throws IOException if the body cannot be opened.
+     */
+    public Body open(Request req, Response res) throws IOException {
+        if (threshold < 0) {
+            return new PlainBody(res.raw());
+        }
+        res.header("Vary", "Accept-Encoding");
+        if (!acceptsGzip(req.headers("Accept-Encoding"))) {
+            return new PlainBody(res.raw());
+        }
+        return new CompressingOutputStream(req, res.raw());
+    }
+
+    private void log(Request req, long length, long compressedLength) {
+        System.out.println("Compressed " + req.requestMethod() + " " + req.pathInfo() + " from " + length
+                + " to " + compressedLength + " bytes (" + String.format(Locale.ROOT, "%.1f",
+                (double) compressedLength * PERCENT / length) + "%)");
+    }
+
+    private static void setGzipEncoding(HttpServletResponse raw) {
+        raw.setHeader("Content-Encoding", GZIP);
+        String etag = raw.getHeader("ETag");
+        if (etag != null && etag.startsWith("\"") && etag.endsWith("\"")) {
+            raw.setHeader("ETag", etag.substring(0, etag.length() - 1) + ETAG_SUFFIX + "\"");
+        }
+    }
+
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.toLowerCase(Locale.ROOT).split(",")) {
+            String[] parts = coding.split(";");
+            if (parts[0].trim().equals(GZIP) || "*".equals(parts[0].trim())) {
+                return parts.length == 1 || !parts[1].replace(" ", "").matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length / 4);
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(body);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Body of a streamed response. Closing it without {@link #finish()}, e.g. because writing failed, never completes
+     * the body: a body that is still held back is dropped, so the route can send an error status instead. Once parts
+     * were sent, the 200 is already committed and the body stays incomplete, so clients fail to parse it rather
+     * than taking it for the whole response.
+     */
+    public abstract static class Body extends OutputStream {
+        /**
+         * Completes the body and sends what is still held back.
+         *
+         * @throws IOException if the body cannot be sent.
+         */
+        public abstract void finish() throws IOException;
+    }
+
+    private static final class PlainBody extends Body {
+        private final HttpServletResponse raw;
+
+        private PlainBody(HttpServletResponse raw) {
+            this.raw = raw;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            raw.getOutputStream().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            raw.getOutputStream().write(b, off, len);
+        }
+
+        @Override
+        public void finish() throws IOException {
+            raw.flushBuffer();
+        }
+    }
+
+    private final class CompressingOutputStream extends Body {
+        private final Request req;
+        private final HttpServletResponse raw;
+        // holds the body until the threshold is reached
+        private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+        private CountingOutputStream compressed;
+        private GZIPOutputStream gzip;
+        private long length;
+
+        private CompressingOutputStream(Request req, HttpServletResponse raw) {
+            this.req = req;
+            this.raw = raw;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            length += len;
+            if (gzip != null) {
+                gzip.write(b, off, len);
+                return;
+            }
+            pending.write(b, off, len);
+            if (pending.size() >= threshold) {
+                setGzipEncoding(raw);
+                compressed = new CountingOutputStream(raw.getOutputStream());
+                gzip = new GZIPOutputStream(compressed);
+                pending.writeTo(gzip);
+                pending = null;
+            }
+        }
+
+        @Override
+        public void finish() throws IOException {
+            if (gzip == null) {
+                raw.setContentLength(pending.size());
+                pending.writeTo(raw.getOutputStream());
+            } else {
+                gzip.finish();
+                log(req, length, compressed.getCount());
+            }
+            raw.flushBuffer();
+        }
+    }
+
+}
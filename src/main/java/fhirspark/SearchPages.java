@@ -0,0 +1,88 @@
+package fhirspark;
+
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import org.hl7.fhir.instance.model.api.IBaseBundle;
+import org.hl7.fhir.r4.model.Bundle;
+
+/**
+ * All pages of a FHIR search result, following the next links. While a page is processed, the following page is
+ * already requested in the background. If the iteration is stopped early, the pages have to be closed, so the
+ * request for the following page is cancelled.
+ */
+final class SearchPages implements Iterable<Bundle>, AutoCloseable {
+
+    private final IGenericClient client;
+    private final Bundle first;
+    private final Executor executor;
+    private final List<PageIterator> iterators = new ArrayList<PageIterator>();
+
+    /**
+     *
+     * @param client   client the search was executed with.
+     * @param first    first page of the search result.
+     * @param executor runs the requests for the following pages.
+     */
+    SearchPages(IGenericClient client, Bundle first, Executor executor) {
+        this.client = client;
+        this.first = first;
+        this.executor = executor;
+    }
+
+    @Override
+    public Iterator<Bundle> iterator() {
+        PageIterator iterator = new PageIterator();
+        iterators.add(iterator);
+        return iterator;
+    }
+
+    /**
+     * Cancels the requests for pages that were not iterated yet. A request that is already running completes, but
+     * its page is discarded.
+     */
+    @Override
+    public void close() {
+        iterators.forEach(PageIterator::cancel);
+    }
+
+    private final class PageIterator implements Iterator<Bundle> {
+        private CompletableFuture<Bundle> next = CompletableFuture.completedFuture(first);
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Bundle next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Bundle page;
+            try {
+                page = next.join();
+            } catch (CompletionException e) {
+                next = null;
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+            next = page.getLink(IBaseBundle.LINK_NEXT) == null ? null
+                    : CompletableFuture.supplyAsync(() -> client.loadPage().next(page).execute(), executor);
+            return page;
+        }
+
+        private void cancel() {
+            if (next != null) {
+                // a request that did not start yet is skipped
+                next.cancel(false);
+                next = null;
+            }
+        }
+    }
+
+}
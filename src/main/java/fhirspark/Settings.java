@@ -20,7 +20,21 @@ import java.util.List;
     "hgncPath",
     "portalUrl",
     "loginRequired",
+    "validationCacheTtl",
+    "validationCacheNegativeTtl",
     "oncokbPath",
+    "pubmedCachePath",
+    "responseCacheSize",
+    "warmupIterations",
+    "watchReferenceData",
+    "diffMode",
+    "transactionStrategy",
+    "transactionConcurrency",
+    "compressionThreshold",
+    "searchPageSize",
+    "alterationIndex",
+    "alterationCacheSize",
+    "httpconfig",
     "hl7v2config"
 })
 public final class Settings {
@@ -43,8 +57,36 @@ public final class Settings {
     private String portalUrl;
     @JsonProperty("loginRequired")
     private Boolean loginRequired;
+    @JsonProperty("validationCacheTtl")
+    private Integer validationCacheTtl;
+    @JsonProperty("validationCacheNegativeTtl")
+    private Integer validationCacheNegativeTtl;
     @JsonProperty("oncokbPath")
     private String oncokbPath;
+    @JsonProperty("pubmedCachePath")
+    private String pubmedCachePath;
+    @JsonProperty("responseCacheSize")
+    private Long responseCacheSize;
+    @JsonProperty("warmupIterations")
+    private Integer warmupIterations;
+    @JsonProperty("watchReferenceData")
+    private Boolean watchReferenceData;
+    @JsonProperty("diffMode")
+    private Boolean diffMode;
+    @JsonProperty("transactionStrategy")
+    private String transactionStrategy;
+    @JsonProperty("transactionConcurrency")
+    private Integer transactionConcurrency;
+    @JsonProperty("compressionThreshold")
+    private Integer compressionThreshold;
+    @JsonProperty("searchPageSize")
+    private Integer searchPageSize;
+    @JsonProperty("alterationIndex")
+    private Boolean alterationIndex;
+    @JsonProperty("alterationCacheSize")
+    private Long alterationCacheSize;
+    @JsonProperty("httpconfig")
+    private HttpConfig httpconfig;
     @JsonProperty("hl7v2config")
     private List<Hl7v2config> hl7v2config;
 
@@ -138,6 +180,26 @@ public final class Settings {
         this.loginRequired = loginRequired;
     }
 
+    @JsonProperty("validationCacheTtl")
+    public Integer getValidationCacheTtl() {
+        return validationCacheTtl;
+    }
+
+    @JsonProperty("validationCacheTtl")
+    public void setValidationCacheTtl(Integer validationCacheTtl) {
+        this.validationCacheTtl = validationCacheTtl;
+    }
+
+    @JsonProperty("validationCacheNegativeTtl")
+    public Integer getValidationCacheNegativeTtl() {
+        return validationCacheNegativeTtl;
+    }
+
+    @JsonProperty("validationCacheNegativeTtl")
+    public void setValidationCacheNegativeTtl(Integer validationCacheNegativeTtl) {
+        this.validationCacheNegativeTtl = validationCacheNegativeTtl;
+    }
+
     @JsonProperty("oncokbPath")
     public String getOncokbPath() {
         return oncokbPath;
@@ -148,6 +210,126 @@ public final class Settings {
         this.oncokbPath = oncokbPath;
     }
 
+    @JsonProperty("pubmedCachePath")
+    public String getPubmedCachePath() {
+        return pubmedCachePath;
+    }
+
+    @JsonProperty("pubmedCachePath")
+    public void setPubmedCachePath(String pubmedCachePath) {
+        this.pubmedCachePath = pubmedCachePath;
+    }
+
+    @JsonProperty("responseCacheSize")
+    public Long getResponseCacheSize() {
+        return responseCacheSize;
+    }
+
+    @JsonProperty("responseCacheSize")
+    public void setResponseCacheSize(Long responseCacheSize) {
+        this.responseCacheSize = responseCacheSize;
+    }
+
+    @JsonProperty("warmupIterations")
+    public Integer getWarmupIterations() {
+        return warmupIterations;
+    }
+
+    @JsonProperty("warmupIterations")
+    public void setWarmupIterations(Integer warmupIterations) {
+        this.warmupIterations = warmupIterations;
+    }
+
+    @JsonProperty("watchReferenceData")
+    public Boolean getWatchReferenceData() {
+        return watchReferenceData;
+    }
+
+    @JsonProperty("watchReferenceData")
+    public void setWatchReferenceData(Boolean watchReferenceData) {
+        this.watchReferenceData = watchReferenceData;
+    }
+
+    @JsonProperty("diffMode")
+    public Boolean getDiffMode() {
+        return diffMode;
+    }
+
+    @JsonProperty("diffMode")
+    public void setDiffMode(Boolean diffMode) {
+        this.diffMode = diffMode;
+    }
+
+    @JsonProperty("transactionStrategy")
+    public String getTransactionStrategy() {
+        return transactionStrategy;
+    }
+
+    @JsonProperty("transactionStrategy")
+    public void setTransactionStrategy(String transactionStrategy) {
+        this.transactionStrategy = transactionStrategy;
+    }
+
+    @JsonProperty("transactionConcurrency")
+    public Integer getTransactionConcurrency() {
+        return transactionConcurrency;
+    }
+
+    @JsonProperty("transactionConcurrency")
+    public void setTransactionConcurrency(Integer transactionConcurrency) {
+        this.transactionConcurrency = transactionConcurrency;
+    }
+
+    @JsonProperty("compressionThreshold")
+    public Integer getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    @JsonProperty("compressionThreshold")
+    public void setCompressionThreshold(Integer compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    @JsonProperty("searchPageSize")
+    public Integer getSearchPageSize() {
+        return searchPageSize;
+    }
+
+    @JsonProperty("searchPageSize")
+    public void setSearchPageSize(Integer searchPageSize) {
+        this.searchPageSize = searchPageSize;
+    }
+
+    @JsonProperty("alterationIndex")
+    public Boolean getAlterationIndex() {
+        return alterationIndex;
+    }
+
+    @JsonProperty("alterationIndex")
+    public void setAlterationIndex(Boolean alterationIndex) {
+        this.alterationIndex = alterationIndex;
+    }
+
+    @JsonProperty("alterationCacheSize")
+    public Long getAlterationCacheSize() {
+        return alterationCacheSize;
+    }
+
+    @JsonProperty("alterationCacheSize")
+    public void setAlterationCacheSize(Long alterationCacheSize) {
+        this.alterationCacheSize = alterationCacheSize;
+    }
+
+    @JsonProperty("httpconfig")
+    public HttpConfig getHttpconfig() {
+        return httpconfig;
+    }
+
+    @JsonProperty("httpconfig")
+    public void setHttpconfig(HttpConfig httpconfig) {
+        this.httpconfig = httpconfig;
+    }
+
     @JsonProperty("hl7v2config")
     public List<Hl7v2config> getHl7v2config() {
         return hl7v2config;
@@ -0,0 +1,72 @@
+package fhirspark;
+
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.client.apache4.ApacheHttpClient4;
+import com.sun.jersey.client.apache4.ApacheHttpClient4Handler;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+/**
+ * Pooled keep-alive HTTP client shared by all outbound REST calls (cBioPortal, PubMed and the FHIR server).
+ */
+public class SharedHttpClient {
+
+    private final CloseableHttpClient httpClient;
+    private final Client jerseyClient;
+
+    /**
+     *
+     * @param config pool size, timeouts and keep-alive in milliseconds. Defaults of Apache HttpClient are used
+     *               for missing values.
+     */
+    public SharedHttpClient(HttpConfig config) {
+        HttpConfig c = config != null ? config : new HttpConfig();
+
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        if (c.getMaxConnectionsTotal() != null) {
+            connectionManager.setMaxTotal(c.getMaxConnectionsTotal());
+        }
+        if (c.getMaxConnectionsPerRoute() != null) {
+            connectionManager.setDefaultMaxPerRoute(c.getMaxConnectionsPerRoute());
+        }
+
+        RequestConfig.Builder requestConfig = RequestConfig.custom();
+        if (c.getConnectTimeout() != null) {
+            requestConfig.setConnectTimeout(c.getConnectTimeout());
+        }
+        if (c.getSocketTimeout() != null) {
+            requestConfig.setSocketTimeout(c.getSocketTimeout());
+        }
+        if (c.getConnectionRequestTimeout() != null) {
+            requestConfig.setConnectionRequestTimeout(c.getConnectionRequestTimeout());
+        }
+
+        // Sessions are passed explicitly per request and must never be shared between users.
+        HttpClientBuilder builder = HttpClients.custom()
+                .setConnectionManager(connectionManager).setDefaultRequestConfig(requestConfig.build())
+                .disableCookieManagement();
+        if (c.getKeepAlive() != null) {
+            long keepAlive = c.getKeepAlive();
+            builder.setKeepAliveStrategy((response, context) -> {
+                long announced = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                return announced > 0 ? Math.min(announced, keepAlive) : keepAlive;
+            }).evictIdleConnections(keepAlive, TimeUnit.MILLISECONDS);
+        }
+        this.httpClient = builder.evictExpiredConnections().build();
+        this.jerseyClient = new ApacheHttpClient4(new ApacheHttpClient4Handler(httpClient, null, false));
+    }
+
+    public CloseableHttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    public Client getJerseyClient() {
+        return jerseyClient;
+    }
+
+}
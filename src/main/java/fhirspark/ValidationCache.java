@@ -0,0 +1,123 @@
+package fhirspark;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Caches the decisions of cBioPortal whether a session may access a patient of a study. Concurrent requests
+ * for the same session, study and patient share a single upstream request.
+ */
+public class ValidationCache {
+
+    private static final long MAXIMUM_SIZE = 10000;
+
+    private final long positiveTtlNanos;
+    private final long negativeTtlNanos;
+    private final Ticker ticker;
+    private final Cache<List<String>, Decision> cache;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     *
+     * @param positiveTtl seconds a granted access is remembered.
+     * @param negativeTtl seconds a denied access is remembered.
+     */
+    public ValidationCache(long positiveTtl, long negativeTtl) {
+        this(positiveTtl, negativeTtl, Ticker.systemTicker());
+    }
+
+    /**
+     *
+     * @param positiveTtl seconds a granted access is remembered.
+     * @param negativeTtl seconds a denied access is remembered.
+     * @param ticker      clock of the cache and of the decisions.
+     */
+    ValidationCache(long positiveTtl, long negativeTtl, Ticker ticker) {
+        this.positiveTtlNanos = TimeUnit.SECONDS.toNanos(positiveTtl);
+        this.negativeTtlNanos = TimeUnit.SECONDS.toNanos(negativeTtl);
+        this.ticker = ticker;
+        this.cache = CacheBuilder.newBuilder().maximumSize(MAXIMUM_SIZE).ticker(ticker)
+                .expireAfterWrite(Math.max(positiveTtlNanos, negativeTtlNanos), TimeUnit.NANOSECONDS).build();
+    }
+
+    /**
+     * Returns the remembered decision or asks cBioPortal via the given supplier. Only a grant or an explicit
+     * denial is remembered. If cBioPortal gave no decision, access is denied and the next request asks again;
+     * requests that waited for the same upstream request share its outcome.
+     *
+     * @param sessionId JSESSIONID of the request.
+     * @param studyId   requested study.
+     * @param patientId requested patient.
+     * @param upstream  performs the validation request against cBioPortal, returns null if there was no decision.
+     * @return Boolean if the session is able to access the data
+     */
+    public boolean validate(String sessionId, String studyId, String patientId, Supplier<Boolean> upstream) {
+        List<String> key = Arrays.asList(sessionId, studyId, patientId);
+        while (true) {
+            boolean[] loaded = {false};
+            Decision decision;
+            try {
+                decision = cache.get(key, () -> {
+                    loaded[0] = true;
+                    misses.increment();
+                    Boolean granted = upstream.get();
+                    if (granted == null) {
+                        return Decision.NONE;
+                    }
+                    return new Decision(granted, ticker.read() + (granted ? positiveTtlNanos : negativeTtlNanos));
+                });
+            } catch (ExecutionException | UncheckedExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+            if (decision == Decision.NONE) {
+                cache.asMap().remove(key, decision);
+                return false;
+            }
+            if (loaded[0] || decision.expiresAt - ticker.read() > 0) {
+                if (!loaded[0]) {
+                    hits.increment();
+                }
+                return decision.granted;
+            }
+            cache.asMap().remove(key, decision);
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    private static final class Decision {
+        // no decision, only handed to the requests that waited for it
+        private static final Decision NONE = new Decision(false, 0);
+
+        private final boolean granted;
+        private final long expiresAt;
+
+        private Decision(boolean granted, long expiresAt) {
+            this.granted = granted;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+}
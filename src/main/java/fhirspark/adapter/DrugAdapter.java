@@ -25,7 +25,7 @@ public class DrugAdapter {
         medicationStatement.setStatus(MedicationStatementStatus.UNKNOWN).setSubject(patient);
 
         String ncitCode = treatment.getNcitCode() != null ? treatment.getNcitCode()
-                : OncoKbDrug.resolve(treatment.getName()).getNcitCode();
+                : OncoKbDrug.ncitCode(treatment.getName(), treatment.getSynonyms());
         if (ncitCode != null) {
             medicationStatement.getMedicationCodeableConcept().getCoding()
                     .add(new Coding("http://ncithesaurus-stage.nci.nih.gov", ncitCode, treatment.getName()));
@@ -1,7 +1,6 @@
 package fhirspark.adapter;
 
 import fhirspark.resolver.HgncGeneName;
-import fhirspark.resolver.model.Genenames;
 import fhirspark.restmodel.GeneticAlteration;
 import org.hl7.fhir.r4.model.CodeableConcept;
 import org.hl7.fhir.r4.model.Coding;
@@ -85,12 +84,12 @@ public class GeneticAlterationsAdapter {
         }
         variant.addComponent(variationCode);
 
-        Genenames gn = HgncGeneName.resolve(geneticAlteration.getEntrezGeneId());
-        assert geneticAlteration.getHugoSymbol().equals(gn.getApprovedSymbol());
+        String approvedSymbol = HgncGeneName.approvedSymbol(geneticAlteration.getEntrezGeneId());
+        assert geneticAlteration.getHugoSymbol().equals(approvedSymbol);
         ObservationComponentComponent hgnc = new ObservationComponentComponent()
                 .setCode(new CodeableConcept(new Coding("http://loinc.org", "48018-6", "Gene studied [ID]")));
-        hgnc.getValueCodeableConcept()
-                .addCoding(new Coding("http://www.genenames.org/geneId", gn.getHgncId(), gn.getApprovedSymbol()));
+        hgnc.getValueCodeableConcept().addCoding(new Coding("http://www.genenames.org/geneId",
+                HgncGeneName.hgncId(geneticAlteration.getEntrezGeneId()), approvedSymbol));
         variant.addComponent(hgnc);
 
         ObservationComponentComponent startEnd = new ObservationComponentComponent().setCode(
@@ -0,0 +1,108 @@
+package fhirspark.resolver;
+
+import fhirspark.resolver.model.Drug;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Immutable index of OncoKB drugs over their names and synonyms. Keys are case-folded and sorted, so exact and
+ * prefix lookups are binary searches.
+ */
+final class DrugIndex {
+
+    private final String[] keys;
+    private final Drug[] drugs;
+
+    private DrugIndex(String[] keys, Drug[] drugs) {
+        this.keys = keys;
+        this.drugs = drugs;
+    }
+
+    /**
+     * Builds the index. If a name or synonym is shared by several drugs, a drug name wins over a synonym and
+     * otherwise the first drug in the list.
+     *
+     * @param drugList drugs from OncoKB.
+     * @return index over all names and synonyms.
+     */
+    static DrugIndex build(List<Drug> drugList) {
+        List<Entry> entries = new ArrayList<>();
+        for (Drug d : drugList) {
+            add(entries, d.getDrugName(), d);
+        }
+        for (Drug d : drugList) {
+            if (d.getSynonyms() != null) {
+                for (String synonym : d.getSynonyms()) {
+                    add(entries, synonym, d);
+                }
+            }
+        }
+        // stable sort keeps names before synonyms and the list order for equal keys
+        entries.sort(Comparator.comparing(e -> e.key));
+
+        List<String> keys = new ArrayList<>(entries.size());
+        List<Drug> drugs = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            if (keys.isEmpty() || !keys.get(keys.size() - 1).equals(entry.key)) {
+                keys.add(entry.key);
+                drugs.add(entry.drug);
+            }
+        }
+        return new DrugIndex(keys.toArray(new String[0]), drugs.toArray(new Drug[0]));
+    }
+
+    static String normalize(String name) {
+        return name.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     *
+     * @param name name or synonym of a drug, case is ignored.
+     * @return the drug or null if it is unknown.
+     */
+    Drug exact(String name) {
+        int i = Arrays.binarySearch(keys, normalize(name));
+        return i >= 0 ? drugs[i] : null;
+    }
+
+    /**
+     *
+     * @param prefix beginning of a name or synonym, case is ignored.
+     * @param limit  maximum number of drugs to return.
+     * @return distinct drugs with a matching name or synonym in alphabetical order of the matching key.
+     */
+    List<Drug> prefix(String prefix, int limit) {
+        String key = normalize(prefix);
+        int i = Arrays.binarySearch(keys, key);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        Set<Drug> result = new LinkedHashSet<>();
+        for (; i < keys.length && keys[i].startsWith(key) && result.size() < limit; i++) {
+            result.add(drugs[i]);
+        }
+        return new ArrayList<>(result);
+    }
+
+    private static void add(List<Entry> entries, String name, Drug drug) {
+        if (name != null && !name.trim().isEmpty()) {
+            entries.add(new Entry(normalize(name), drug));
+        }
+    }
+
+    private static final class Entry {
+        private final String key;
+        private final Drug drug;
+
+        private Entry(String key, Drug drug) {
+            this.key = key;
+            this.drug = drug;
+        }
+    }
+
+}
@@ -0,0 +1,73 @@
+package fhirspark.resolver;
+
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.gclient.TokenClientParam;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Practitioner;
+
+/**
+ * Resolves the credentials of Practitioners stored on the FHIR server (cached).
+ */
+public class FhirPractitioner {
+
+    private static final long MAXIMUM_SIZE = 1000;
+    private static final long EXPIRE_AFTER_MINUTES = 10;
+
+    private final IGenericClient client;
+    private final Cache<String, String> credentials = CacheBuilder.newBuilder().maximumSize(MAXIMUM_SIZE)
+            .expireAfterWrite(EXPIRE_AFTER_MINUTES, TimeUnit.MINUTES).build();
+
+    public FhirPractitioner(IGenericClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Resolves the credentials of all given Practitioners. Entries missing in the cache are fetched with a
+     * single search on the FHIR server.
+     *
+     * @param references references to Practitioner resources, e.g. Practitioner/123.
+     * @return map from the given reference to the credentials of the Practitioner.
+     */
+    public Map<String, String> resolve(Collection<String> references) {
+        Set<String> missing = new HashSet<>();
+        for (String reference : references) {
+            String id = new IdType(reference).getIdPart();
+            if (credentials.getIfPresent(id) == null) {
+                missing.add(id);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            Bundle bPractitioners = client.search().forResource(Practitioner.class)
+                    .where(new TokenClientParam("_id").exactly().codes(missing)).count(missing.size())
+                    .returnBundle(Bundle.class).execute();
+            for (BundleEntryComponent entry : bPractitioners.getEntry()) {
+                Practitioner practitioner = (Practitioner) entry.getResource();
+                if (practitioner.getIdentifierFirstRep().getValue() != null) {
+                    credentials.put(practitioner.getIdElement().getIdPart(),
+                            practitioner.getIdentifierFirstRep().getValue());
+                }
+            }
+        }
+
+        Map<String, String> resolved = new HashMap<>();
+        for (String reference : references) {
+            String credential = credentials.getIfPresent(new IdType(reference).getIdPart());
+            if (credential != null) {
+                resolved.put(reference, credential);
+            }
+        }
+        return resolved;
+    }
+
+}
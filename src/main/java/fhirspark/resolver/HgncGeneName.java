@@ -5,41 +5,171 @@ import com.fasterxml.jackson.dataformat.csv.CsvSchema;
 import fhirspark.resolver.model.Genenames;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.Map;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * Cache for available Genenames from HGNC (offline).
  */
 public final class HgncGeneName {
 
-    private static final Map<Integer, Genenames> HGNC_MAP = new HashMap<>();
+    private static final int SNAPSHOT_VERSION = 2;
+
+    // replaced as a whole on reload, so resolve never sees a partially built index
+    private static volatile HgncIndex index = HgncIndex.build(Collections.emptyList());
 
     private HgncGeneName() {
     }
 
     /**
-     * Initalizes cache for Genenames.
+     * Initalizes cache for Genenames. A binary snapshot next to the database is used as long as the database is
+     * unchanged, otherwise the database is parsed and the snapshot rewritten.
      * @param dbPath Path of the database.
      */
     public static void initialize(String dbPath) {
+        long started = System.nanoTime();
         try {
+            Path source = Paths.get(dbPath);
+            Path snapshotPath = ReferenceSnapshot.pathOf(source);
+            byte[] checksum = ReferenceSnapshot.checksum(source);
+            ByteBuffer snapshot = ReferenceSnapshot.read(snapshotPath, SNAPSHOT_VERSION, checksum);
+            if (snapshot != null) {
+                index = HgncIndex.read(snapshot);
+                System.out.println("Loaded " + index.size() + " HGNC genes from " + snapshotPath + " in "
+                        + (System.nanoTime() - started) / 1_000_000 + " ms");
+                return;
+            }
             Iterator<Genenames> iterator = new CsvMapper().readerFor(Genenames.class)
                     .with(CsvSchema.emptySchema().withHeader().withColumnSeparator('\t'))
                     .readValues(new FileInputStream(dbPath));
+            List<Genenames> genes = new ArrayList<>();
             while (iterator.hasNext()) {
-                Genenames g = iterator.next();
-                HGNC_MAP.put(g.getNcbiGeneId(), g);
+                genes.add(iterator.next());
             }
+            index = HgncIndex.build(genes);
+            ReferenceSnapshot.write(snapshotPath, SNAPSHOT_VERSION, checksum, index.toBytes());
+            System.out.println("Loaded " + index.size() + " HGNC genes from " + dbPath + " in "
+                    + (System.nanoTime() - started) / 1_000_000 + " ms");
         } catch (IOException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
         }
     }
 
+    /**
+     * Looks up the approved symbol of a gene without allocating.
+     *
+     * @param ncbiGeneId NCBI gene id to look up.
+     * @return approved symbol of the gene or null if the gene is unknown.
+     */
+    public static String approvedSymbol(int ncbiGeneId) {
+        HgncIndex current = index;
+        int i = current.indexOf(ncbiGeneId);
+        return i < 0 ? null : current.approvedSymbol(i);
+    }
+
+    /**
+     * Looks up the HGNC id of a gene without allocating.
+     *
+     * @param ncbiGeneId NCBI gene id to look up.
+     * @return HGNC id like HGNC:1097 or null if the gene is unknown.
+     */
+    public static String hgncId(int ncbiGeneId) {
+        HgncIndex current = index;
+        int i = current.indexOf(ncbiGeneId);
+        return i < 0 ? null : current.hgncId(i);
+    }
+
+    /**
+     * Builds a new HGNC entry on every call, use {@link #approvedSymbol(int)} and {@link #hgncId(int)} on hot paths.
+     *
+     * @param ncbiGeneId NCBI gene id to look up.
+     * @return HGNC entry of the gene or null if the gene is unknown.
+     */
     public static Genenames resolve(int ncbiGeneId) {
-        return HGNC_MAP.get(ncbiGeneId);
+        HgncIndex current = index;
+        int i = current.indexOf(ncbiGeneId);
+        if (i < 0) {
+            return null;
+        }
+        Genenames g = new Genenames();
+        g.setNcbiGeneId(ncbiGeneId);
+        g.setHgncId(current.hgncId(i));
+        g.setApprovedSymbol(current.approvedSymbol(i));
+        return g;
+    }
+
+    /**
+     * Looks up genes by approved, previous or alias symbol, ignoring case.
+     *
+     * @param symbol symbol to look up.
+     * @return matching genes, those with the symbol as approved symbol first.
+     */
+    public static List<Genenames> search(String symbol) {
+        HgncIndex current = index;
+        Set<Integer> positions = new LinkedHashSet<>();
+        for (int match : current.findSymbol(symbol)) {
+            positions.add(HgncIndex.matchPosition(match));
+        }
+        List<Genenames> genes = new ArrayList<>(positions.size());
+        for (int i : positions) {
+            genes.add(resolve(current.ncbiGeneId(i)));
+        }
+        return genes;
+    }
+
+    /**
+     * Resolves a symbol to its NCBI gene id. An approved symbol wins, otherwise a previous symbol and then an
+     * alias is used if it belongs to a single gene.
+     *
+     * @param symbol approved, previous or alias symbol.
+     * @return NCBI gene id or null if the symbol is unknown or ambiguous.
+     */
+    public static Integer resolveSymbol(String symbol) {
+        HgncIndex current = index;
+        int[] matches = current.findSymbol(symbol);
+        for (int kind = HgncIndex.APPROVED; kind <= HgncIndex.ALIAS; kind++) {
+            int position = -1;
+            for (int match : matches) {
+                if (HgncIndex.matchKind(match) != kind || HgncIndex.matchPosition(match) == position) {
+                    continue;
+                }
+                if (position >= 0) {
+                    return null;
+                }
+                position = HgncIndex.matchPosition(match);
+            }
+            if (position >= 0) {
+                return current.ncbiGeneId(position);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Replaces a missing or unknown NCBI gene id by the gene the symbol resolves to.
+     *
+     * @param ncbiGeneId NCBI gene id as sent by the client, may be null.
+     * @param symbol     Hugo symbol as sent by the client, may be null.
+     * @return the given id if it is known, otherwise the id resolved from the symbol or the given id as fallback.
+     */
+    public static Integer fixNcbiGeneId(Integer ncbiGeneId, String symbol) {
+        if (ncbiGeneId != null && index.indexOf(ncbiGeneId) >= 0 || symbol == null) {
+            return ncbiGeneId;
+        }
+        Integer resolved = resolveSymbol(symbol);
+        return resolved != null ? resolved : ncbiGeneId;
+    }
+
+    static HgncIndex getIndex() {
+        return index;
     }
 
 }
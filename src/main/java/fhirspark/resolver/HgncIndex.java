@@ -0,0 +1,323 @@
+package fhirspark.resolver;
+
+import fhirspark.resolver.model.Genenames;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Immutable index of HGNC genes sorted by NCBI gene id. The numeric part of the HGNC id is stored as int and all
+ * approved symbols are packed into a single byte array. Lookups go through an open addressing table of int slots,
+ * so they neither box nor allocate. Symbols and HGNC ids are decoded on demand and kept in a small direct mapped
+ * table, so repeated lookups of the same genes do not allocate either. A second, equally packed index maps
+ * approved, previous and alias symbols to the genes.
+ */
+final class HgncIndex {
+
+    static final int APPROVED = 0;
+    static final int PREVIOUS = 1;
+    static final int ALIAS = 2;
+
+    private static final String HGNC_PREFIX = "HGNC:";
+    private static final int GOLDEN_RATIO = 0x9E3779B9;
+    private static final int KIND_SHIFT = 28;
+    private static final int DECODED_SIZE = 1024;
+    private static final int POSITION_MASK = (1 << KIND_SHIFT) - 1;
+
+    private final int[] ncbiGeneIds;
+    private final int[] hgncIds;
+    private final int[] symbolOffsets;
+    private final byte[] symbols;
+    // recently decoded values by position modulo the table size, entries are replaced without locking
+    private final Decoded[] decodedSymbols = new Decoded[DECODED_SIZE];
+    private final Decoded[] decodedHgncIds = new Decoded[DECODED_SIZE];
+    // position + 1 of the gene in the arrays above, 0 marks an empty slot
+    private final int[] slots;
+    private final int shift;
+    // upper case symbols sorted by symbol, kind and gene; each entry holds the kind above KIND_SHIFT
+    private final int[] keyOffsets;
+    private final byte[] keys;
+    private final int[] keyEntries;
+
+    /**
+     *
+     * @param ncbiGeneIds   sorted NCBI gene ids.
+     * @param hgncIds       numeric part of the HGNC id per gene.
+     * @param symbolOffsets start of the approved symbol per gene in symbols, followed by the total length.
+     * @param symbols       concatenated UTF-8 encoded approved symbols.
+     * @param keyOffsets    start of each symbol key in keys, followed by the total length.
+     * @param keys          concatenated UTF-8 encoded upper case symbol keys.
+     * @param keyEntries    kind and position of the gene per symbol key.
+     */
+    HgncIndex(int[] ncbiGeneIds, int[] hgncIds, int[] symbolOffsets, byte[] symbols, int[] keyOffsets, byte[] keys,
+            int[] keyEntries) {
+        this.ncbiGeneIds = ncbiGeneIds;
+        this.hgncIds = hgncIds;
+        this.symbolOffsets = symbolOffsets;
+        this.symbols = symbols;
+        this.keyOffsets = keyOffsets;
+        this.keys = keys;
+        this.keyEntries = keyEntries;
+
+        int bits = Math.max(1, Integer.SIZE - Integer.numberOfLeadingZeros(ncbiGeneIds.length * 2));
+        this.slots = new int[1 << bits];
+        this.shift = Integer.SIZE - bits;
+        int mask = slots.length - 1;
+        for (int i = 0; i < ncbiGeneIds.length; i++) {
+            int slot = (ncbiGeneIds[i] * GOLDEN_RATIO) >>> shift;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = i + 1;
+        }
+    }
+
+    /**
+     * Builds the index from parsed rows. Rows without NCBI gene id are skipped.
+     *
+     * @param genes rows of the HGNC database.
+     * @return index over all genes with NCBI gene id.
+     */
+    static HgncIndex build(List<Genenames> genes) {
+        long[] order = new long[genes.size()];
+        int size = 0;
+        for (int i = 0; i < genes.size(); i++) {
+            if (genes.get(i).getNcbiGeneId() != null) {
+                order[size++] = ((long) genes.get(i).getNcbiGeneId() << Integer.SIZE) | i;
+            }
+        }
+        Arrays.sort(order, 0, size);
+
+        int[] ncbiGeneIds = new int[size];
+        int[] hgncIds = new int[size];
+        List<byte[]> symbolBytes = new ArrayList<>(size);
+        List<Key> symbolKeys = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            Genenames g = genes.get((int) order[i]);
+            ncbiGeneIds[i] = g.getNcbiGeneId();
+            hgncIds[i] = Integer.parseInt(g.getHgncId().substring(HGNC_PREFIX.length()));
+            symbolBytes.add(g.getApprovedSymbol().getBytes(StandardCharsets.UTF_8));
+            addKeys(symbolKeys, g.getApprovedSymbol(), APPROVED, i);
+            addKeys(symbolKeys, g.getPreviousSymbols(), PREVIOUS, i);
+            addKeys(symbolKeys, g.getAliasSymbols(), ALIAS, i);
+        }
+        int[] symbolOffsets = new int[size + 1];
+        byte[] symbols = pack(symbolBytes, symbolOffsets);
+
+        symbolKeys.sort((a, b) -> {
+            int c = Arrays.compareUnsigned(a.bytes, b.bytes);
+            return c != 0 ? c : Integer.compare(a.entry, b.entry);
+        });
+        List<byte[]> keyBytes = new ArrayList<>(symbolKeys.size());
+        int[] keyEntries = new int[symbolKeys.size()];
+        for (int i = 0; i < symbolKeys.size(); i++) {
+            keyBytes.add(symbolKeys.get(i).bytes);
+            keyEntries[i] = symbolKeys.get(i).entry;
+        }
+        int[] keyOffsets = new int[symbolKeys.size() + 1];
+        byte[] keys = pack(keyBytes, keyOffsets);
+        return new HgncIndex(ncbiGeneIds, hgncIds, symbolOffsets, symbols, keyOffsets, keys, keyEntries);
+    }
+
+    /**
+     * Restores an index from the payload written by {@link #toBytes()}.
+     *
+     * @param buffer payload of a snapshot.
+     * @return restored index.
+     */
+    static HgncIndex read(ByteBuffer buffer) {
+        int size = buffer.getInt();
+        int[] ncbiGeneIds = readInts(buffer, size);
+        int[] hgncIds = readInts(buffer, size);
+        int[] symbolOffsets = readInts(buffer, size + 1);
+        byte[] symbols = new byte[symbolOffsets[size]];
+        buffer.get(symbols);
+        int keyCount = buffer.getInt();
+        int[] keyOffsets = readInts(buffer, keyCount + 1);
+        int[] keyEntries = readInts(buffer, keyCount);
+        byte[] keys = new byte[keyOffsets[keyCount]];
+        buffer.get(keys);
+        return new HgncIndex(ncbiGeneIds, hgncIds, symbolOffsets, symbols, keyOffsets, keys, keyEntries);
+    }
+
+    /**
+     *
+     * @return payload for a snapshot of this index.
+     * @throws IOException if the payload cannot be written.
+     */
+    byte[] toBytes() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(ncbiGeneIds.length);
+        writeInts(out, ncbiGeneIds);
+        writeInts(out, hgncIds);
+        writeInts(out, symbolOffsets);
+        out.write(symbols);
+        out.writeInt(keyEntries.length);
+        writeInts(out, keyOffsets);
+        writeInts(out, keyEntries);
+        out.write(keys);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     *
+     * @param ncbiGeneId NCBI gene id to look up.
+     * @return position of the gene, negative if the gene is unknown.
+     */
+    int indexOf(int ncbiGeneId) {
+        int mask = slots.length - 1;
+        int slot = (ncbiGeneId * GOLDEN_RATIO) >>> shift;
+        int entry;
+        while ((entry = slots[slot]) != 0) {
+            if (ncbiGeneIds[entry - 1] == ncbiGeneId) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Looks up genes by symbol, ignoring case.
+     *
+     * @param symbol approved, previous or alias symbol.
+     * @return matches to be decoded with {@link #matchPosition(int)} and {@link #matchKind(int)}. Approved
+     *         symbols come first, followed by previous and alias symbols.
+     */
+    int[] findSymbol(String symbol) {
+        byte[] key = normalize(symbol).getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = keyEntries.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareKey(mid, key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        int end = low;
+        while (end < keyEntries.length && compareKey(end, key) == 0) {
+            end++;
+        }
+        return Arrays.copyOfRange(keyEntries, low, end);
+    }
+
+    static int matchPosition(int match) {
+        return match & POSITION_MASK;
+    }
+
+    static int matchKind(int match) {
+        return match >>> KIND_SHIFT;
+    }
+
+    /**
+     *
+     * @param index position of the gene.
+     * @return HGNC id of the gene, e.g. HGNC:1097.
+     */
+    String hgncId(int index) {
+        Decoded entry = decodedHgncIds[index & (DECODED_SIZE - 1)];
+        if (entry == null || entry.index != index) {
+            entry = new Decoded(index, HGNC_PREFIX + hgncIds[index]);
+            decodedHgncIds[index & (DECODED_SIZE - 1)] = entry;
+        }
+        return entry.value;
+    }
+
+    /**
+     *
+     * @param index position of the gene.
+     * @return approved symbol of the gene.
+     */
+    String approvedSymbol(int index) {
+        Decoded entry = decodedSymbols[index & (DECODED_SIZE - 1)];
+        if (entry == null || entry.index != index) {
+            entry = new Decoded(index, new String(symbols, symbolOffsets[index],
+                    symbolOffsets[index + 1] - symbolOffsets[index], StandardCharsets.UTF_8));
+            decodedSymbols[index & (DECODED_SIZE - 1)] = entry;
+        }
+        return entry.value;
+    }
+
+    int ncbiGeneId(int index) {
+        return ncbiGeneIds[index];
+    }
+
+    int size() {
+        return ncbiGeneIds.length;
+    }
+
+    private int compareKey(int index, byte[] key) {
+        return Arrays.compareUnsigned(keys, keyOffsets[index], keyOffsets[index + 1], key, 0, key.length);
+    }
+
+    private static String normalize(String symbol) {
+        return symbol.trim().toUpperCase(Locale.ROOT);
+    }
+
+    private static void addKeys(List<Key> keys, String symbols, int kind, int position) {
+        if (symbols == null) {
+            return;
+        }
+        for (String symbol : symbols.split(",")) {
+            if (!symbol.trim().isEmpty()) {
+                keys.add(new Key(normalize(symbol).getBytes(StandardCharsets.UTF_8), kind << KIND_SHIFT | position));
+            }
+        }
+    }
+
+    private static byte[] pack(List<byte[]> values, int[] offsets) {
+        for (int i = 0; i < values.size(); i++) {
+            offsets[i + 1] = offsets[i] + values.get(i).length;
+        }
+        byte[] packed = new byte[offsets[values.size()]];
+        for (int i = 0; i < values.size(); i++) {
+            System.arraycopy(values.get(i), 0, packed, offsets[i], values.get(i).length);
+        }
+        return packed;
+    }
+
+    private static int[] readInts(ByteBuffer buffer, int count) {
+        int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + count * Integer.BYTES);
+        return values;
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    // final fields, so an entry read by another thread is always complete
+    private static final class Decoded {
+        private final int index;
+        private final String value;
+
+        private Decoded(int index, String value) {
+            this.index = index;
+            this.value = value;
+        }
+    }
+
+    private static final class Key {
+        private final byte[] bytes;
+        private final int entry;
+
+        private Key(byte[] bytes, int entry) {
+            this.bytes = bytes;
+            this.entry = entry;
+        }
+    }
+
+}
@@ -3,33 +3,61 @@ package fhirspark.resolver;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import fhirspark.resolver.model.Drug;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 
 /**
- * Cache for available Drugs from OncoKB (offline).
+ * Cache for available Drugs from OncoKB (offline). All Drugs handed out, including {@link #UNKNOWN}, are shared
+ * with the index and must not be modified; {@link #ncitCode(String, String)} answers the common lookup without
+ * exposing them.
  */
 public final class OncoKbDrug {
 
-    private static final Map<String, Drug> DRUG_MAP = new HashMap<>();
+    /**
+     * Shared result for unknown drugs. It must not be modified.
+     */
+    public static final Drug UNKNOWN = new Drug();
+
+    private static final int SNAPSHOT_VERSION = 1;
+
+    // replaced as a whole on reload, so resolve never sees a partially built index
+    private static volatile DrugIndex index = DrugIndex.build(Collections.emptyList());
 
     private OncoKbDrug() {
     }
 
     /**
-     * Initalizes cache for Drugs.
+     * Initalizes cache for Drugs. A binary snapshot next to the database is used as long as the database is
+     * unchanged, otherwise the database is parsed and the snapshot rewritten.
      * @param dbPath Path of the database.
      */
     public static void initalize(String dbPath) {
+        long started = System.nanoTime();
         try {
-            List<Drug> drugs = new ObjectMapper().readerFor(new TypeReference<List<Drug>>() {
-            }).readValue(new FileInputStream(dbPath));
-            for (Drug d : drugs) {
-                DRUG_MAP.put(d.getDrugName(), d);
+            Path source = Paths.get(dbPath);
+            Path snapshotPath = ReferenceSnapshot.pathOf(source);
+            byte[] checksum = ReferenceSnapshot.checksum(source);
+            ByteBuffer snapshot = ReferenceSnapshot.read(snapshotPath, SNAPSHOT_VERSION, checksum);
+            List<Drug> drugs;
+            if (snapshot != null) {
+                drugs = readSnapshot(snapshot);
+            } else {
+                drugs = new ObjectMapper().readerFor(new TypeReference<List<Drug>>() {
+                }).readValue(new FileInputStream(dbPath));
+                ReferenceSnapshot.write(snapshotPath, SNAPSHOT_VERSION, checksum, toSnapshot(drugs));
             }
+            index = DrugIndex.build(drugs);
+            System.out.println("Loaded " + drugs.size() + " OncoKB drugs from "
+                    + (snapshot != null ? snapshotPath : dbPath) + " in "
+                    + (System.nanoTime() - started) / 1_000_000 + " ms");
         } catch (IOException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
@@ -38,10 +66,92 @@ public final class OncoKbDrug {
 
     /**
      *
-     * @param name drug that shall be resolved.
-     * @return Drug entry from OncoKB.
+     * @param name drug that shall be resolved, matched case-insensitively against names and synonyms.
+     * @return Drug entry from OncoKB or {@link #UNKNOWN}.
      */
     public static Drug resolve(String name) {
-        return DRUG_MAP.getOrDefault(name, new Drug());
+        Drug drug = name != null ? index.exact(name) : null;
+        return drug != null ? drug : UNKNOWN;
+    }
+
+    /**
+     * Resolves a drug by its name and falls back to the synonyms sent by cBioPortal.
+     *
+     * @param name     drug that shall be resolved.
+     * @param synonyms comma separated synonyms of the drug, may be null.
+     * @return Drug entry from OncoKB or {@link #UNKNOWN}.
+     */
+    public static Drug resolve(String name, String synonyms) {
+        Drug drug = resolve(name);
+        if (drug == UNKNOWN && synonyms != null) {
+            for (String synonym : synonyms.split(",")) {
+                drug = resolve(synonym);
+                if (drug != UNKNOWN) {
+                    break;
+                }
+            }
+        }
+        return drug;
+    }
+
+    /**
+     * Looks up the NCIt code of a drug by its name and falls back to the synonyms sent by cBioPortal.
+     *
+     * @param name     drug that shall be resolved.
+     * @param synonyms comma separated synonyms of the drug, may be null.
+     * @return NCIt code from OncoKB or null if neither the name nor a synonym is known.
+     */
+    public static String ncitCode(String name, String synonyms) {
+        return resolve(name, synonyms).getNcitCode();
+    }
+
+    /**
+     *
+     * @param prefix beginning of a drug name or synonym, case is ignored.
+     * @param limit  maximum number of drugs to return.
+     * @return matching drugs from OncoKB.
+     */
+    public static List<Drug> search(String prefix, int limit) {
+        return index.prefix(prefix, limit);
+    }
+
+    private static byte[] toSnapshot(List<Drug> drugs) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(drugs.size());
+        for (Drug d : drugs) {
+            ReferenceSnapshot.writeString(out, d.getNcitCode());
+            ReferenceSnapshot.writeString(out, d.getDrugName());
+            ReferenceSnapshot.writeString(out, d.getUuid());
+            out.writeInt(d.getSynonyms() != null ? d.getSynonyms().size() : -1);
+            if (d.getSynonyms() != null) {
+                for (String synonym : d.getSynonyms()) {
+                    ReferenceSnapshot.writeString(out, synonym);
+                }
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static List<Drug> readSnapshot(ByteBuffer buffer) {
+        int size = buffer.getInt();
+        List<Drug> drugs = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Drug d = new Drug();
+            d.setNcitCode(ReferenceSnapshot.readString(buffer));
+            d.setDrugName(ReferenceSnapshot.readString(buffer));
+            d.setUuid(ReferenceSnapshot.readString(buffer));
+            int synonyms = buffer.getInt();
+            if (synonyms >= 0) {
+                List<String> list = new ArrayList<>(synonyms);
+                for (int j = 0; j < synonyms; j++) {
+                    list.add(ReferenceSnapshot.readString(buffer));
+                }
+                d.setSynonyms(list);
+            }
+            drugs.add(d);
+        }
+        return drugs;
     }
 }
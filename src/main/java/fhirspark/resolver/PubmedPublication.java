@@ -3,21 +3,59 @@ package fhirspark.resolver;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
 import com.sun.jersey.api.client.Client;
-import com.sun.jersey.api.client.ClientHandlerException;
 import com.sun.jersey.api.client.ClientResponse;
-import com.sun.jersey.api.client.UniformInterfaceException;
 import com.sun.jersey.api.client.WebResource;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
 import org.eclipse.jetty.http.HttpStatus;
 
 /**
- * Resolves the title of a pubmed publication if it was not provided.
+ * Resolves the title of a pubmed publication if it was not provided. Titles never change, so every resolved
+ * title is kept in memory and in a store on disk that survives restarts.
  */
 public class PubmedPublication {
 
-    private Client client = new Client();
+    private static final long MAXIMUM_SIZE = 10000;
+    private static final int BATCH_SIZE = 200;
+    private static final int PARALLEL_REQUESTS = 3;
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(PARALLEL_REQUESTS, runnable -> {
+        Thread thread = new Thread(runnable, "pubmed-resolver");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private Client client;
     private ObjectMapper objectMapper = new ObjectMapper(new JsonFactory());
+    private Cache<Integer, String> titles = CacheBuilder.newBuilder().maximumSize(MAXIMUM_SIZE).build();
+    private PubmedTitleStore store;
+
+    /**
+     *
+     * @param client    Jersey client used for requests to the NCBI eutils.
+     * @param storePath location of the title store on disk, null to keep titles in memory only.
+     */
+    public PubmedPublication(Client client, String storePath) {
+        this.client = client;
+        if (storePath != null) {
+            this.store = new PubmedTitleStore(Paths.get(storePath));
+        }
+    }
 
     /**
      *
@@ -25,28 +63,88 @@ public class PubmedPublication {
      * @return name of article
      */
     public String resolvePublication(int pubmedId) {
+        return resolvePublications(Collections.singleton(pubmedId)).get(pubmedId);
+    }
+
+    /**
+     * Resolves the titles of several articles. Articles that are not cached are requested in batches of up to
+     * {@value #BATCH_SIZE} ids, which are sent in parallel.
+     *
+     * @param pubmedIds ids of the articles to resolve
+     * @return map from id to name of the article, ids that could not be resolved are missing
+     */
+    public Map<Integer, String> resolvePublications(Collection<Integer> pubmedIds) {
+        return resolvePublicationsAsync(pubmedIds).join();
+    }
+
+    /**
+     * Resolves the titles of several articles in the background. Cached titles are looked up by the caller, only
+     * the requests for the missing titles run on the resolver threads, which never wait for each other.
+     *
+     * @param pubmedIds ids of the articles to resolve
+     * @return future of the map from id to name of the article
+     */
+    public CompletableFuture<Map<Integer, String>> resolvePublicationsAsync(Collection<Integer> pubmedIds) {
+        Map<Integer, String> resolved = new HashMap<>();
+        List<Integer> missing = new ArrayList<>();
+        for (Integer pubmedId : new HashSet<>(pubmedIds)) {
+            String title = titles.getIfPresent(pubmedId);
+            if (title == null && store != null) {
+                title = store.get(pubmedId);
+            }
+            if (title != null) {
+                titles.put(pubmedId, title);
+                resolved.put(pubmedId, title);
+            } else {
+                missing.add(pubmedId);
+            }
+        }
+
+        List<CompletableFuture<Map<Integer, String>>> batches = new ArrayList<>();
+        for (List<Integer> batch : Lists.partition(missing, BATCH_SIZE)) {
+            batches.add(CompletableFuture.supplyAsync(() -> fetchPublications(batch), EXECUTOR));
+        }
+        return CompletableFuture.allOf(batches.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            for (CompletableFuture<Map<Integer, String>> batch : batches) {
+                batch.join().forEach((pubmedId, title) -> {
+                    if (store != null) {
+                        store.put(pubmedId, title);
+                    }
+                    titles.put(pubmedId, title);
+                    resolved.put(pubmedId, title);
+                });
+            }
+            return resolved;
+        });
+    }
+
+    private Map<Integer, String> fetchPublications(List<Integer> pubmedIds) {
+        Map<Integer, String> fetched = new HashMap<>();
         WebResource webResource = client
-                .resource("https://eutils.ncbi.nlm.nih.gov/entrez/eutils/esummary.fcgi?db=pubmed&id=" + pubmedId
+                .resource("https://eutils.ncbi.nlm.nih.gov/entrez/eutils/esummary.fcgi?db=pubmed&id="
+                        + pubmedIds.stream().map(String::valueOf).collect(Collectors.joining(","))
                         + "&retmode=json");
         ClientResponse response = webResource.accept("application/json").get(ClientResponse.class);
         if (response.getStatus() != HttpStatus.OK_200) {
+            response.close();
             throw new RuntimeException("HTTP Error: " + response.getStatus());
         }
 
         try {
             JsonNode node = objectMapper.readTree(response.getEntityInputStream());
-            return node.at("/result/" + pubmedId + "/title").asText();
-        } catch (ClientHandlerException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-        } catch (UniformInterfaceException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+            for (Integer pubmedId : pubmedIds) {
+                String title = node.at("/result/" + pubmedId + "/title").asText();
+                if (!title.isEmpty()) {
+                    fetched.put(pubmedId, title);
+                }
+            }
         } catch (IOException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+            // completes the batch exceptionally like an HTTP error, an empty result would look like unknown ids
+            throw new UncheckedIOException("Parsing the titles of pubmed ids " + pubmedIds + " failed", e);
+        } finally {
+            response.close();
         }
-        return null;
+        return fetched;
     }
 
 }
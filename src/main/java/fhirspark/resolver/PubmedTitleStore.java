@@ -0,0 +1,117 @@
+package fhirspark.resolver;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Append-only file of resolved publication titles. Each record consists of the pubmed id, the length of the
+ * title and the UTF-8 encoded title. Only the file offsets are kept in memory.
+ */
+public class PubmedTitleStore {
+
+    private static final int HEADER_SIZE = 8;
+
+    private final FileChannel channel;
+    private final Map<Integer, Long> offsets = new ConcurrentHashMap<>();
+
+    /**
+     * Opens the store and indexes all complete records. An incomplete or corrupt record at the end of the file,
+     * e.g. after a crash, is discarded together with everything after it.
+     *
+     * @param path location of the store.
+     */
+    public PubmedTitleStore(Path path) {
+        try {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            long position = 0;
+            while (read(header.clear(), position) == HEADER_SIZE) {
+                header.flip();
+                int pmid = header.getInt();
+                int length = header.getInt();
+                if (length < 0 || position + HEADER_SIZE + length > channel.size()) {
+                    break;
+                }
+                offsets.put(pmid, position);
+                position += HEADER_SIZE + length;
+            }
+            channel.truncate(position);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     *
+     * @param pubmedId id of the article.
+     * @return stored title or null if the article was not resolved before.
+     */
+    public String get(int pubmedId) {
+        Long position = offsets.get(pubmedId);
+        if (position == null) {
+            return null;
+        }
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if (read(header, position) < HEADER_SIZE) {
+                throw new EOFException("Record of " + pubmedId + " is truncated");
+            }
+            header.flip();
+            header.getInt();
+            ByteBuffer title = ByteBuffer.allocate(header.getInt());
+            if (read(title, position + HEADER_SIZE) < title.capacity()) {
+                throw new EOFException("Title of " + pubmedId + " is truncated");
+            }
+            return new String(title.array(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Appends the title of an article unless it is already stored.
+     *
+     * @param pubmedId id of the article.
+     * @param title    title of the article.
+     */
+    public synchronized void put(int pubmedId, String title) {
+        if (offsets.containsKey(pubmedId)) {
+            return;
+        }
+        byte[] bytes = title.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + bytes.length);
+        record.putInt(pubmedId).putInt(bytes.length).put(bytes).flip();
+        try {
+            long position = channel.size();
+            while (record.hasRemaining()) {
+                channel.write(record, position + record.position());
+            }
+            offsets.put(pubmedId, position);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // a single read may return fewer bytes than requested, stops early only at the end of the file
+    private int read(ByteBuffer buffer, long position) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+}
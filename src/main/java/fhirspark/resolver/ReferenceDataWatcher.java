@@ -0,0 +1,105 @@
+package fhirspark.resolver;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Watches reference data files like hgnc.csv and drugs.json and reloads them on a background thread when they
+ * change. The resolvers build a fresh index and publish it with a single reference swap.
+ */
+public class ReferenceDataWatcher {
+
+    private static final long SETTLE_DELAY = 1000;
+
+    private final WatchService watchService;
+    private final Map<Path, Runnable> reloaders = new ConcurrentHashMap<>();
+    // a failing reload must not stop the watcher, the previous index simply stays in place
+    private final ExecutorService reloader = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "reference-data-reloader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     *
+     * @throws IOException if the file system does not support watching.
+     */
+    public ReferenceDataWatcher() throws IOException {
+        this.watchService = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * Registers a file for reloading.
+     *
+     * @param file   path of the reference data file.
+     * @param reload called with the path whenever the file was created or modified.
+     * @throws IOException if the directory of the file cannot be watched.
+     */
+    public void watch(String file, Consumer<String> reload) throws IOException {
+        Path path = Paths.get(file).toAbsolutePath();
+        path.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        reloaders.put(path, () -> reload.accept(file));
+    }
+
+    /**
+     * Starts the background thread that performs the reloads.
+     */
+    public void start() {
+        Thread watcher = new Thread(this::run, "reference-data-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            Set<Path> changed = new LinkedHashSet<>();
+            try {
+                WatchKey key = watchService.take();
+                // writers often modify a file in several steps, wait for them to finish
+                Thread.sleep(SETTLE_DELAY);
+                while (key != null) {
+                    Path directory = (Path) key.watchable();
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            changed.addAll(reloaders.keySet());
+                        } else {
+                            changed.add(directory.resolve((Path) event.context()));
+                        }
+                    }
+                    key.reset();
+                    key = watchService.poll();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            for (Path path : changed) {
+                Runnable reload = reloaders.get(path);
+                if (reload != null) {
+                    System.out.println("Reloading " + path);
+                    CompletableFuture.runAsync(reload, reloader).whenComplete((result, e) -> {
+                        if (e != null) {
+                            System.out.println("Reloading " + path + " failed: " + e.getMessage());
+                        }
+                    });
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,121 @@
+package fhirspark.resolver;
+
+import com.google.common.hash.Hashing;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Binary snapshot of parsed reference data stored next to its source file. The header contains a format version
+ * and the SHA-256 checksum of the source, so a snapshot is only used as long as the source is unchanged.
+ */
+final class ReferenceSnapshot {
+
+    private static final String SUFFIX = ".snapshot";
+    private static final int MAGIC = 0x46535350;
+    private static final int CHECKSUM_SIZE = 32;
+    private static final int HEADER_SIZE = 4 + 4 + CHECKSUM_SIZE + 4;
+
+    private ReferenceSnapshot() {
+    }
+
+    static Path pathOf(Path source) {
+        return Paths.get(source.toString() + SUFFIX);
+    }
+
+    static byte[] checksum(Path source) throws IOException {
+        return Hashing.sha256().hashBytes(Files.readAllBytes(source)).asBytes();
+    }
+
+    /**
+     * Memory-maps the snapshot if it matches the format version and the checksum of the source.
+     *
+     * @param snapshot location of the snapshot.
+     * @param version  expected format version.
+     * @param checksum checksum of the current source file.
+     * @return payload of the snapshot or null if it is missing or stale.
+     * @throws IOException if the snapshot cannot be read.
+     */
+    static ByteBuffer read(Path snapshot, int version, byte[] checksum) throws IOException {
+        if (!Files.isRegularFile(snapshot)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                return null;
+            }
+            // the mapping stays valid after the channel is closed
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != version) {
+                return null;
+            }
+            byte[] stored = new byte[CHECKSUM_SIZE];
+            buffer.get(stored);
+            if (!Arrays.equals(stored, checksum) || buffer.getInt() != buffer.remaining()) {
+                return null;
+            }
+            return buffer.slice();
+        }
+    }
+
+    /**
+     * Writes the snapshot atomically. Failures are only logged, as the source can always be parsed again.
+     *
+     * @param snapshot location of the snapshot.
+     * @param version  format version of the payload.
+     * @param checksum checksum of the source file.
+     * @param payload  serialized reference data.
+     */
+    static void write(Path snapshot, int version, byte[] checksum, byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        buffer.putInt(MAGIC).putInt(version).put(checksum).putInt(payload.length).put(payload);
+        Path tmp = Paths.get(snapshot.toString() + ".tmp");
+        try {
+            Files.write(tmp, buffer.array());
+            Files.move(tmp, snapshot, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.out.println("Could not write snapshot " + snapshot + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes a nullable string as length followed by its UTF-8 bytes.
+     *
+     * @param out   target of the payload.
+     * @param value string to write.
+     * @throws IOException if the string cannot be written.
+     */
+    static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     *
+     * @param buffer payload positioned at a string written by {@link #writeString(DataOutput, String)}.
+     * @return the string, may be null.
+     */
+    static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
@@ -1,11 +1,13 @@
 package fhirspark.resolver.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 
 @JsonInclude(JsonInclude.Include.NON_NULL)
-@JsonPropertyOrder({ "HGNC ID", "Approved symbol", "NCBI Gene ID"})
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonPropertyOrder({ "HGNC ID", "Approved symbol", "NCBI Gene ID", "Previous symbols", "Alias symbols"})
 public class Genenames {
 
     @JsonProperty("HGNC ID")
@@ -14,6 +16,10 @@ public class Genenames {
     private String approvedSymbol;
     @JsonProperty("NCBI Gene ID")
     private Integer ncbiGeneId;
+    @JsonProperty("Previous symbols")
+    private String previousSymbols;
+    @JsonProperty("Alias symbols")
+    private String aliasSymbols;
 
     @JsonProperty("HGNC ID")
     public String getHgncId() {
@@ -45,4 +51,24 @@ public class Genenames {
         this.ncbiGeneId = ncbiGeneId;
     }
 
-}
\ No newline at end of file
+    @JsonProperty("Previous symbols")
+    public String getPreviousSymbols() {
+        return previousSymbols;
+    }
+
+    @JsonProperty("Previous symbols")
+    public void setPreviousSymbols(String previousSymbols) {
+        this.previousSymbols = previousSymbols;
+    }
+
+    @JsonProperty("Alias symbols")
+    public String getAliasSymbols() {
+        return aliasSymbols;
+    }
+
+    @JsonProperty("Alias symbols")
+    public void setAliasSymbols(String aliasSymbols) {
+        this.aliasSymbols = aliasSymbols;
+    }
+
+}
@@ -0,0 +1,58 @@
+package fhirspark;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import fhirspark.restmodel.TherapyRecommendation;
+
+/**
+ * Checks storing and invalidation of the per gene results of the alteration cache.
+ */
+public class AlterationCacheTest {
+
+    private static final int BRAF = 673;
+    private static final int KRAS = 3845;
+    private static final int TP53 = 7157;
+
+    @Test
+    public void returnsOnlyCachedGenes() {
+        AlterationCache cache = new AlterationCache(100);
+        cache.putAll(Map.of(BRAF, Map.of("a", new TherapyRecommendation()), KRAS, Map.of()), cache.generation());
+
+        Map<Integer, Map<String, TherapyRecommendation>> cached = cache.getAllPresent(Set.of(BRAF, KRAS, TP53));
+        assertEquals(Set.of(BRAF, KRAS), cached.keySet());
+        assertEquals(1, cached.get(BRAF).size());
+        assertTrue(cached.get(KRAS).isEmpty());
+    }
+
+    @Test
+    public void writesInvalidateTheirGenesAndFormerGenes() {
+        AlterationCache cache = new AlterationCache(100);
+        TherapyRecommendation a = new TherapyRecommendation();
+        cache.putAll(Map.of(BRAF, Map.of("a", a), KRAS, Map.of("a", a, "b", new TherapyRecommendation()),
+                TP53, Map.of()), cache.generation());
+
+        // "a" moved from BRAF and KRAS to TP53
+        cache.invalidate(List.of(TP53), List.of("a"));
+        assertTrue(cache.getAllPresent(Set.of(BRAF, KRAS, TP53)).isEmpty());
+    }
+
+    @Test
+    public void searchesOverlappingAWriteAreNotStored() {
+        AlterationCache cache = new AlterationCache(100);
+        long started = cache.generation();
+        cache.invalidate(List.of(BRAF), List.of("a"));
+        cache.putAll(Map.of(BRAF, Map.of("a", new TherapyRecommendation())), started);
+        assertTrue(cache.getAllPresent(Set.of(BRAF)).isEmpty());
+
+        cache.putAll(Map.of(BRAF, Map.of("a", new TherapyRecommendation())), cache.generation());
+        assertEquals(1, cache.getAllPresent(Set.of(BRAF)).size());
+    }
+
+}
@@ -0,0 +1,81 @@
+package fhirspark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import fhirspark.restmodel.CbioportalRest;
+import fhirspark.restmodel.Reference;
+import fhirspark.restmodel.TherapyRecommendation;
+
+/**
+ * Checks lookups and updates of the alteration index. Does not need a FHIR server.
+ */
+public class AlterationIndexTest {
+
+    private static final int BRAF = 673;
+    private static final int MTOR = 2475;
+    private static final int KRAS = 3845;
+    private static final int TP53 = 7157;
+
+    private ObjectMapper objectMapper = new ObjectMapper();
+    private AlterationIndex index;
+    private List<TherapyRecommendation> recommendations;
+
+    @BeforeEach
+    public void prepare() throws IOException {
+        CbioportalRest request = objectMapper.readValue(
+                ClassLoader.getSystemResourceAsStream("twoMtbThreeRecommendation.json"), CbioportalRest.class);
+        recommendations = new ArrayList<TherapyRecommendation>();
+        request.getMtbs().forEach(mtb -> recommendations.addAll(mtb.getTherapyRecommendations()));
+        index = new AlterationIndex();
+        recommendations.forEach(t -> index.put(t.getId(), t));
+    }
+
+    @Test
+    public void findsRecommendationsByAnyOfTheirGenes() {
+        assertEquals(3, index.size());
+        assertEquals(1, index.getTherapyRecommendations(Set.of(KRAS)).size());
+        assertEquals(1, index.getTherapyRecommendations(Set.of(MTOR, KRAS)).size());
+        assertEquals(2, index.getTherapyRecommendations(Set.of(BRAF, TP53)).size());
+        assertTrue(index.getTherapyRecommendations(Set.of(1)).isEmpty());
+    }
+
+    @Test
+    public void replacedAndRemovedRecommendationsLeaveTheirGenes() {
+        TherapyRecommendation twoGenes = recommendations.get(1);
+        TherapyRecommendation oneGene = objectMapper.convertValue(twoGenes, TherapyRecommendation.class);
+        oneGene.getReasoning().getGeneticAlterations().removeIf(g -> g.getEntrezGeneId() == KRAS);
+
+        index.put(twoGenes.getId(), oneGene);
+        assertTrue(index.getTherapyRecommendations(Set.of(KRAS)).isEmpty());
+        assertSame(oneGene, index.getTherapyRecommendations(Set.of(MTOR)).iterator().next());
+
+        // the initial scan must not overwrite a recommendation written in the meantime
+        index.load(twoGenes.getId(), twoGenes);
+        assertTrue(index.getTherapyRecommendations(Set.of(KRAS)).isEmpty());
+
+        index.remove(twoGenes.getId());
+        assertTrue(index.getTherapyRecommendations(Set.of(MTOR)).isEmpty());
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void referencesAreReturnedOncePerPmid() {
+        recommendations.get(0).setReferences(List.of(new Reference().withPmid(1).withName("first")));
+        recommendations.get(2).setReferences(List.of(new Reference().withPmid(1).withName("first"),
+                new Reference().withPmid(2).withName("second")));
+        assertEquals(2, index.getReferences(Set.of(BRAF, TP53)).size());
+    }
+
+}
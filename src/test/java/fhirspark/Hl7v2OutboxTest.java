@@ -0,0 +1,100 @@
+package fhirspark;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ca.uhn.hl7v2.DefaultHapiContext;
+import ca.uhn.hl7v2.HL7Exception;
+import ca.uhn.hl7v2.HapiContext;
+import ca.uhn.hl7v2.model.v281.message.ORU_R01;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks the persistent queue of the HL7 Version 2 outbox. No message reaches a target.
+ */
+public class Hl7v2OutboxTest {
+
+    private HapiContext context = new DefaultHapiContext();
+
+    @TempDir
+    Path outboxPath;
+
+    private Hl7v2config config(int capacity) {
+        Hl7v2config config = new Hl7v2config();
+        config.setServer("localhost");
+        config.setPort(1);
+        config.setOutboxPath(outboxPath.toString());
+        config.setOutboxCapacity(capacity);
+        config.setRetryInitialDelay(10);
+        config.setRetryMaxDelay(10);
+        return config;
+    }
+
+    private ORU_R01 message() throws HL7Exception, IOException {
+        ORU_R01 message = new ORU_R01();
+        message.initQuickstart("ORU", "R01", "P");
+        return message;
+    }
+
+    @Test
+    public void targetsWithoutOutboxSettingsUseDefaults() throws HL7Exception, IOException {
+        String yaml = "hl7v2config:\n"
+                + " - sendv2: true\n   server: first\n   port: 1011\n"
+                + " - sendv2: true\n   server: second\n   port: 1012\n";
+        List<Hl7v2config> targets = new ConfigurationLoader().loadConfiguration(
+                new ByteArrayInputStream(yaml.getBytes(StandardCharsets.UTF_8)), Settings.class).getHl7v2config();
+        assertEquals(2, targets.size());
+        for (Hl7v2config target : targets) {
+            assertEquals("outbox", target.getOutboxPath());
+            assertTrue(target.getOutboxCapacity() > 0);
+            assertTrue(target.getRetryInitialDelay() <= target.getRetryMaxDelay());
+
+            target.setOutboxPath(outboxPath.toString());
+            Hl7v2Outbox outbox = new Hl7v2Outbox(context, target);
+            outbox.enqueue(message());
+            assertEquals(1, outbox.getDepth());
+        }
+    }
+
+    @Test
+    public void capacityIsNotExceeded() throws HL7Exception, IOException {
+        Hl7v2Outbox outbox = new Hl7v2Outbox(context, config(2));
+        assertTrue(outbox.enqueue(message()));
+        assertTrue(outbox.enqueue(message()));
+        assertFalse(outbox.hasCapacity());
+        assertFalse(outbox.enqueue(message()));
+        assertEquals(2, outbox.getDepth());
+        assertEquals(1, outbox.getDropped());
+    }
+
+    @Test
+    public void incompleteMessagesAreRemovedAndUnreadableMessagesParked() throws IOException, InterruptedException {
+        Path directory = Files.createDirectories(outboxPath.resolve("localhost-1"));
+        Path incomplete = Files.write(directory.resolve("00000000000000000001-0000000001.tmp"), new byte[] {'M'});
+        Path unreadable = Files.write(directory.resolve("00000000000000000002-0000000002.hl7"),
+                "not a message".getBytes(StandardCharsets.UTF_8));
+
+        Hl7v2Outbox outbox = new Hl7v2Outbox(context, config(1));
+        assertFalse(Files.exists(incomplete));
+        assertEquals(1, outbox.getDepth());
+
+        outbox.start();
+        for (int i = 0; i < 100 && outbox.getFailed() == 0; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(1, outbox.getFailed());
+        assertEquals(0, outbox.getDepth());
+        assertTrue(Files.exists(directory.resolve(unreadable.getFileName() + ".failed")));
+    }
+
+}
@@ -0,0 +1,153 @@
+package fhirspark;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.server.exceptions.UnprocessableEntityException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
+import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.hl7.fhir.r4.model.DiagnosticReport;
+import org.hl7.fhir.r4.model.Enumerations;
+import org.hl7.fhir.r4.model.OperationOutcome;
+import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.Resource;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import fhirspark.resolver.HgncGeneName;
+import fhirspark.resolver.OncoKbDrug;
+import fhirspark.restmodel.CbioportalRest;
+
+/**
+ * Checks how a transaction bundle is split and submitted for the chunked transaction strategy. Does not need a FHIR
+ * server.
+ */
+@TestInstance(Lifecycle.PER_CLASS)
+public class JsonFhirMapperChunkTest {
+
+    private ObjectMapper objectMapper = new ObjectMapper();
+    private JsonFhirMapper jfm;
+
+    @BeforeAll
+    public void prepare() throws IOException {
+        Settings settings = new ConfigurationLoader()
+                .loadConfiguration(new FileInputStream("src/main/resources/settings.yaml"), Settings.class);
+        settings.setPubmedCachePath(null);
+        HgncGeneName.initialize(settings.getHgncPath());
+        OncoKbDrug.initalize(settings.getOncokbPath());
+        jfm = new JsonFhirMapper(settings);
+    }
+
+    @Test
+    public void sharedResourcesComeFirstAndEachMtbGetsItsOwnChunk() throws IOException {
+        CbioportalRest request = objectMapper.readValue(
+                ClassLoader.getSystemResourceAsStream("twoMtbThreeRecommendation.json"), CbioportalRest.class);
+        Bundle bundle = jfm.buildBundle(request.getId(), request.getMtbs());
+        int entries = bundle.getEntry().size();
+
+        List<Bundle> chunks = jfm.splitBundle(bundle);
+        assertEquals(request.getMtbs().size() + 1, chunks.size());
+        assertEquals(entries, chunks.stream().mapToInt(c -> c.getEntry().size()).sum());
+
+        Set<Resource> shared = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (BundleEntryComponent entry : chunks.get(0).getEntry()) {
+            assertFalse(entry.getResource() instanceof DiagnosticReport);
+            shared.add(entry.getResource());
+        }
+
+        for (Bundle chunk : chunks.subList(1, chunks.size())) {
+            Set<Resource> own = Collections.newSetFromMap(new IdentityHashMap<>());
+            chunk.getEntry().forEach(e -> own.add(e.getResource()));
+            List<DiagnosticReport> reports = chunk.getEntry().stream().map(BundleEntryComponent::getResource)
+                    .filter(DiagnosticReport.class::isInstance).map(DiagnosticReport.class::cast)
+                    .collect(Collectors.toList());
+            assertEquals(1, reports.size());
+            assertEquals(Bundle.BundleType.TRANSACTION, chunk.getType());
+            for (Reference result : reports.get(0).getResult()) {
+                assertTrue(own.contains(result.getResource()) || shared.contains(result.getResource()));
+            }
+            assertTrue(shared.contains(reports.get(0).getSubject().getResource()));
+        }
+    }
+
+    @Test
+    public void rejectedSharedChunkFailsTheRequest() throws IOException {
+        List<String> transactions = new CopyOnWriteArrayList<>();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/fhir", exchange -> reject(exchange, transactions));
+        server.start();
+        Path error = Paths.get("error.json");
+        boolean errorExisted = Files.exists(error);
+        try {
+            Settings settings = new ConfigurationLoader()
+                    .loadConfiguration(new FileInputStream("src/main/resources/settings.yaml"), Settings.class);
+            settings.setPubmedCachePath(null);
+            settings.setTransactionStrategy("chunked");
+            settings.setFhirDbBase("http://localhost:" + server.getAddress().getPort() + "/fhir/");
+            CbioportalRest request = objectMapper.readValue(
+                    ClassLoader.getSystemResourceAsStream("twoMtbThreeRecommendation.json"), CbioportalRest.class);
+
+            JsonFhirMapper chunked = new JsonFhirMapper(settings);
+            assertThrows(UnprocessableEntityException.class,
+                    () -> chunked.addOrEditMtb(request.getId(), request.getMtbs()));
+            // the MTB chunks are not submitted without the shared resources
+            assertEquals(1, transactions.size());
+        } finally {
+            server.stop(0);
+            if (!errorExisted) {
+                Files.deleteIfExists(error);
+            }
+        }
+    }
+
+    private static void reject(HttpExchange exchange, List<String> transactions) throws IOException {
+        int status = 200;
+        IBaseResource body;
+        if (exchange.getRequestURI().getPath().startsWith("/fhir/metadata")) {
+            body = new CapabilityStatement().setFhirVersion(Enumerations.FHIRVersion._4_0_1);
+        } else if ("POST".equals(exchange.getRequestMethod())) {
+            transactions.add(exchange.getRequestURI().getPath());
+            status = 422;
+            OperationOutcome outcome = new OperationOutcome();
+            outcome.addIssue().setDiagnostics("unknown code");
+            body = outcome;
+        } else {
+            body = new Bundle().setType(Bundle.BundleType.SEARCHSET);
+        }
+
+        byte[] bytes = FhirContext.forR4().newJsonParser().encodeResourceToString(body)
+                .getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/fhir+json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+}
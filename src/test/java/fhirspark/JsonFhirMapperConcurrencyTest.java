@@ -0,0 +1,130 @@
+package fhirspark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
+import org.hl7.fhir.r4.model.DiagnosticReport;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.Resource;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import fhirspark.resolver.HgncGeneName;
+import fhirspark.resolver.OncoKbDrug;
+import fhirspark.restmodel.CbioportalRest;
+
+/**
+ * Builds bundles for many patients in parallel and checks that no state leaks between the calls.
+ * Does not need a FHIR server.
+ */
+@TestInstance(Lifecycle.PER_CLASS)
+public class JsonFhirMapperConcurrencyTest {
+
+    private static final int THREADS = 8;
+    private static final int REQUESTS = 400;
+
+    private ObjectMapper objectMapper = new ObjectMapper();
+    private JsonFhirMapper jfm;
+    private String input;
+
+    @BeforeAll
+    public void prepare() throws IOException {
+        Settings settings = new ConfigurationLoader()
+                .loadConfiguration(new FileInputStream("src/main/resources/settings.yaml"), Settings.class);
+        settings.setPubmedCachePath(null);
+        HgncGeneName.initialize(settings.getHgncPath());
+        OncoKbDrug.initalize(settings.getOncokbPath());
+        jfm = new JsonFhirMapper(settings);
+        input = new String(ClassLoader.getSystemResourceAsStream("twoMtbThreeRecommendation.json").readAllBytes(),
+                StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void parallelBuildsDoNotShareState() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> results = new ArrayList<>();
+        for (int i = 0; i < REQUESTS; i++) {
+            String patientId = "Testpatient" + i;
+            results.add(executor.submit((Callable<Void>) () -> {
+                CbioportalRest request = objectMapper.readValue(input.replace("Testpatient23", patientId),
+                        CbioportalRest.class);
+                verify(patientId, request, jfm.buildBundle(patientId, request.getMtbs()));
+                return null;
+            }));
+        }
+        executor.shutdown();
+        for (Future<?> result : results) {
+            result.get();
+        }
+    }
+
+    @Test
+    public void sharedResourcesAppearOncePerBundle() throws IOException {
+        CbioportalRest request = objectMapper.readValue(input, CbioportalRest.class);
+        Bundle bundle = jfm.buildBundle(request.getId(), request.getMtbs());
+
+        Map<String, Long> counts = bundle.getEntry().stream()
+                .collect(Collectors.groupingBy(e -> e.getResource().fhirType(), Collectors.counting()));
+        assertEquals(1, counts.get("Patient"));
+        // all MTBs and recommendations are authored by the same user
+        assertEquals(1, counts.get("Practitioner"));
+        // Testpatient_01 and Testpatient_02
+        assertEquals(2, counts.get("Specimen"));
+        assertEquals(bundle.getEntry().size(), bundle.getEntry().stream()
+                .map(e -> e.getRequest().getUrl()).distinct().count());
+    }
+
+    private void verify(String patientId, CbioportalRest request, Bundle bundle) {
+        Set<Resource> resources = Collections.newSetFromMap(new IdentityHashMap<>());
+        bundle.getEntry().forEach(e -> resources.add(e.getResource()));
+
+        List<Patient> patients = bundle.getEntry().stream().map(BundleEntryComponent::getResource)
+                .filter(Patient.class::isInstance).map(Patient.class::cast).collect(Collectors.toList());
+        assertEquals(1, patients.size());
+        assertEquals(patientId, patients.get(0).getIdentifierFirstRep().getValue());
+
+        long expectedVariants = request.getMtbs().stream().flatMap(m -> m.getTherapyRecommendations().stream())
+                .flatMap(t -> t.getReasoning().getGeneticAlterations().stream()).map(a -> a.getEntrezGeneId())
+                .distinct().count();
+        long variants = 0;
+        for (BundleEntryComponent entry : bundle.getEntry()) {
+            if (entry.getResource() instanceof Observation && ((Observation) entry.getResource()).hasSubject()) {
+                variants++;
+                assertSame(patients.get(0), ((Observation) entry.getResource()).getSubject().getResource());
+            }
+            if (entry.getResource() instanceof DiagnosticReport) {
+                DiagnosticReport report = (DiagnosticReport) entry.getResource();
+                assertSame(patients.get(0), report.getSubject().getResource());
+                for (Reference result : report.getResult()) {
+                    assertTrue(resources.contains(result.getResource()));
+                }
+            }
+        }
+        assertEquals(expectedVariants, variants);
+    }
+
+}
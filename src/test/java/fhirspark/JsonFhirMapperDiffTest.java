@@ -0,0 +1,59 @@
+package fhirspark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+
+import fhirspark.restmodel.CbioportalRest;
+import fhirspark.restmodel.Mtb;
+
+@TestInstance(Lifecycle.PER_CLASS)
+public class JsonFhirMapperDiffTest {
+
+    private ObjectMapper objectMapper = new ObjectMapper();
+    private JsonFhirMapper jfm;
+    private byte[] input;
+
+    @BeforeAll
+    public void prepare() throws IOException {
+        Settings settings = new ConfigurationLoader()
+                .loadConfiguration(new FileInputStream("src/main/resources/settings.yaml"), Settings.class);
+        settings.setPubmedCachePath(null);
+        jfm = new JsonFhirMapper(settings);
+        input = ClassLoader.getSystemResourceAsStream("twoMtbThreeRecommendation.json").readAllBytes();
+    }
+
+    private List<Mtb> read() throws IOException {
+        return objectMapper.readValue(input, CbioportalRest.class).getMtbs();
+    }
+
+    @Test
+    public void unchangedMtbsAreSkipped() throws IOException {
+        assertEquals(0, jfm.changedMtbs(read(), read()).size());
+    }
+
+    @Test
+    public void onlyEditedMtbIsWritten() throws IOException {
+        List<Mtb> incoming = read();
+        incoming.get(1).getTherapyRecommendations().get(0).getComment().add("fünf");
+        List<Mtb> changed = jfm.changedMtbs(incoming, read());
+        assertEquals(1, changed.size());
+        assertEquals(incoming.get(1).getId(), changed.get(0).getId());
+    }
+
+    @Test
+    public void newMtbsAreWritten() throws IOException {
+        assertEquals(2, jfm.changedMtbs(read(), Collections.emptyList()).size());
+    }
+
+}
@@ -0,0 +1,228 @@
+package fhirspark;
+
+import ca.uhn.fhir.context.FhirContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.hl7.fhir.r4.model.CodeableConcept;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.DiagnosticReport;
+import org.hl7.fhir.r4.model.Enumerations;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.OperationOutcome;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Reference;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import fhirspark.restmodel.GeneticAlteration;
+import fhirspark.restmodel.TherapyRecommendation;
+
+/**
+ * Checks the searches of the mapper against a stub FHIR server, which answers them over two pages. Does not need a
+ * FHIR server.
+ */
+public class JsonFhirMapperSearchTest {
+
+    private static final String CHAIN = "subject.identifier=";
+    private static final String RECOMMENDATIONS = "_getpages=b";
+    private static final String ANY_REPORT = "/fhir/DiagnosticReport?_count=1&_elements=id";
+    private static final int CHAIN_CHECKS = 10;
+
+    private static final int BRAF = 673;
+
+    private enum Chain { SUPPORTED, IGNORED, REJECTED, NO_REPORTS, EMPTY }
+
+    private FhirContext ctx = FhirContext.forR4();
+    private List<String> requests = new CopyOnWriteArrayList<>();
+    private Chain chain;
+    private HttpServer server;
+    private JsonFhirMapper jfm;
+
+    @BeforeEach
+    public void prepare() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/fhir", this::handle);
+        server.start();
+        Settings settings = new ConfigurationLoader()
+                .loadConfiguration(new FileInputStream("src/main/resources/settings.yaml"), Settings.class);
+        settings.setPubmedCachePath(null);
+        settings.setFhirDbBase("http://localhost:" + server.getAddress().getPort() + "/fhir/");
+        jfm = new JsonFhirMapper(settings);
+    }
+
+    @AfterEach
+    public void stop() {
+        server.stop(0);
+    }
+
+    @Test
+    public void supportedChainNeedsNoPatientSearch() {
+        chain = Chain.SUPPORTED;
+        jfm.getVersionToken("P1");
+        jfm.getVersionToken("P1");
+        assertTrue(requests.stream().noneMatch(r -> r.startsWith("/fhir/Patient")));
+        // all pages are checked once, by a search that only requests the subjects
+        assertEquals(1, requests.stream().filter(r -> r.contains(CHAIN) && !r.contains("result")).count());
+        assertEquals(2, requests.stream().filter(r -> r.contains("page=2")).count());
+    }
+
+    @Test
+    public void chainIgnoredOnALaterPageFallsBackToPatientSearch() {
+        chain = Chain.IGNORED;
+        String token = jfm.getVersionToken("P1");
+        assertTrue(requests.stream().anyMatch(r -> r.startsWith("/fhir/Patient")));
+        assertTrue(requests.stream().anyMatch(r -> r.startsWith("/fhir/DiagnosticReport?subject=Patient/1")));
+
+        requests.clear();
+        assertEquals(token, jfm.getVersionToken("P1"));
+        assertFalse(requests.stream().anyMatch(r -> r.contains(CHAIN)));
+    }
+
+    @Test
+    public void chainRejectedFallsBackToPatientSearch() {
+        chain = Chain.REJECTED;
+        String token = jfm.getVersionToken("P1");
+        assertTrue(requests.stream().anyMatch(r -> r.startsWith("/fhir/DiagnosticReport?subject=Patient/1")));
+
+        requests.clear();
+        assertEquals(token, jfm.getVersionToken("P1"));
+        assertFalse(requests.stream().anyMatch(r -> r.contains(CHAIN)));
+    }
+
+    @Test
+    public void patientWithoutReportsIsVerifiedByAnyReport() {
+        chain = Chain.NO_REPORTS;
+        jfm.getVersionToken("P1");
+        jfm.getVersionToken("P1");
+        assertTrue(requests.stream().noneMatch(r -> r.startsWith("/fhir/Patient")));
+        assertEquals(1, requests.stream().filter(ANY_REPORT::equals).count());
+    }
+
+    @Test
+    public void serverWithoutReportsIsCheckedALimitedNumberOfTimes() {
+        chain = Chain.EMPTY;
+        for (int i = 0; i < CHAIN_CHECKS; i++) {
+            jfm.getVersionToken("P1");
+        }
+        assertEquals(CHAIN_CHECKS, requests.stream().filter(ANY_REPORT::equals).count());
+        assertTrue(requests.stream().anyMatch(r -> r.startsWith("/fhir/Patient")));
+
+        requests.clear();
+        jfm.getVersionToken("P1");
+        assertFalse(requests.stream().anyMatch(r -> r.contains(CHAIN) || r.equals(ANY_REPORT)));
+    }
+
+    @Test
+    public void recommendationsAreDecodedWithVariantsFromOtherPages() {
+        Collection<TherapyRecommendation> recommendations = jfm.getTherapyRecommendationsByAlteration(
+                List.of(new GeneticAlteration().withEntrezGeneId(BRAF)));
+        assertEquals(1, recommendations.size());
+        // the second variant is not part of the result and is skipped
+        List<GeneticAlteration> alterations = recommendations.iterator().next().getReasoning()
+                .getGeneticAlterations();
+        assertEquals(1, alterations.size());
+        assertEquals(BRAF, alterations.get(0).getEntrezGeneId());
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getRawQuery();
+        String request = exchange.getRequestURI().getPath()
+                + (query == null ? "" : "?" + URLDecoder.decode(query, StandardCharsets.UTF_8));
+        requests.add(request);
+
+        int status = 200;
+        IBaseResource body;
+        if (request.startsWith("/fhir/metadata")) {
+            body = new CapabilityStatement().setFhirVersion(Enumerations.FHIRVersion._4_0_1);
+        } else if (request.contains(CHAIN) && chain == Chain.REJECTED) {
+            status = 400;
+            OperationOutcome outcome = new OperationOutcome();
+            outcome.addIssue().setDiagnostics("chained search parameters are not supported");
+            body = outcome;
+        } else if (request.startsWith("/fhir/DiagnosticReport") && chain == Chain.EMPTY
+                || request.contains(CHAIN) && chain == Chain.NO_REPORTS) {
+            body = page();
+        } else if (request.startsWith("/fhir/Observation")) {
+            body = page(variant(10)).addLink(new Bundle.BundleLinkComponent().setRelation("next").setUrl(
+                    "http://localhost:" + server.getAddress().getPort() + "/fhir?" + RECOMMENDATIONS + "&page=2"));
+        } else if (request.contains(RECOMMENDATIONS)) {
+            Observation recommendation = new Observation();
+            recommendation.setId("Observation/11");
+            recommendation.getMeta().addProfile(
+                    "http://hl7.org/fhir/uv/genomics-reporting/StructureDefinition/medication-efficacy");
+            recommendation.addIdentifier().setValue("P1_1000_1");
+            recommendation.addDerivedFrom(new Reference("Observation/10"));
+            recommendation.addDerivedFrom(new Reference("Observation/12"));
+            body = page(recommendation);
+        } else if (request.contains(CHAIN)) {
+            body = page(report(1, 1), patient(1)).addLink(new Bundle.BundleLinkComponent().setRelation("next")
+                    .setUrl("http://localhost:" + server.getAddress().getPort() + "/fhir?_getpages=a&page=2"));
+        } else if (request.contains("page=2")) {
+            body = chain == Chain.IGNORED ? page(report(2, 2), patient(2)) : page(report(2, 1), patient(1));
+        } else if (request.startsWith("/fhir/Patient")) {
+            body = page(patient(1));
+        } else {
+            body = page(report(1, 1), patient(1));
+        }
+
+        byte[] bytes = ctx.newJsonParser().encodeResourceToString(body).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/fhir+json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static Bundle page(IBaseResource... resources) {
+        Bundle bundle = new Bundle().setType(Bundle.BundleType.SEARCHSET);
+        for (IBaseResource resource : resources) {
+            bundle.addEntry().setResource((org.hl7.fhir.r4.model.Resource) resource);
+        }
+        return bundle;
+    }
+
+    private static Patient patient(int id) {
+        Patient patient = new Patient();
+        patient.setId("Patient/" + id);
+        patient.getMeta().setVersionId("1");
+        patient.addIdentifier().setSystem("https://cbioportal.org/patient/").setValue("P" + id);
+        return patient;
+    }
+
+    private static Observation variant(int id) {
+        Observation variant = new Observation();
+        variant.setId("Observation/" + id);
+        variant.addComponent().setCode(new CodeableConcept(new Coding("http://loinc.org", "81252-9", null)))
+                .setValue(new CodeableConcept(new Coding("http://www.ncbi.nlm.nih.gov/gene", String.valueOf(BRAF),
+                        null)));
+        return variant;
+    }
+
+    private static DiagnosticReport report(int id, int patient) {
+        DiagnosticReport report = new DiagnosticReport();
+        report.setId("DiagnosticReport/" + id);
+        report.getMeta().setVersionId("1");
+        report.setSubject(new Reference("Patient/" + patient));
+        return report;
+    }
+
+}
@@ -0,0 +1,49 @@
+package fhirspark;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.Set;
+
+import org.hl7.fhir.r4.model.IdType;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks which ids the logical id cache accepts and how they are stored and forgotten.
+ */
+public class LogicalIdCacheTest {
+
+    private static final String SYSTEM = "https://cbioportal.org/patient/";
+
+    @Test
+    public void placeholdersAreNotStored() {
+        LogicalIdCache cache = new LogicalIdCache();
+        cache.put(IdType.newRandomUuid(), SYSTEM, "P1");
+        cache.put(new IdType("urn:uuid:0f6b6f2e-6b5e-4c4e-9d2c-6a1b2c3d4e5f"), SYSTEM, "P2");
+        cache.put(new IdType("123"), SYSTEM, "P3");
+        assertNull(cache.get("Patient", SYSTEM, "P1"));
+        assertNull(cache.get("Patient", SYSTEM, "P2"));
+        assertNull(cache.get("Patient", SYSTEM, "P3"));
+    }
+
+    @Test
+    public void baseUrlAndVersionAreStripped() {
+        LogicalIdCache cache = new LogicalIdCache();
+        cache.put(new IdType("http://localhost:8080/fhir/Patient/123/_history/4"), SYSTEM, "P1");
+        cache.put(new IdType("Practitioner/7/_history/1"), SYSTEM, "alice");
+        assertEquals("Patient/123", cache.get("Patient", SYSTEM, "P1"));
+        assertEquals("Practitioner/7", cache.get("Practitioner", SYSTEM, "alice"));
+        assertNull(cache.get("Practitioner", SYSTEM, "P1"));
+    }
+
+    @Test
+    public void onlyTheGivenIdsAreForgotten() {
+        LogicalIdCache cache = new LogicalIdCache();
+        cache.put(new IdType("Patient/123"), SYSTEM, "P1");
+        cache.put(new IdType("Patient/456"), SYSTEM, "P2");
+        cache.invalidate(Set.of("Patient/123", "Practitioner/7"));
+        assertNull(cache.get("Patient", SYSTEM, "P1"));
+        assertEquals("Patient/456", cache.get("Patient", SYSTEM, "P2"));
+    }
+
+}
@@ -0,0 +1,137 @@
+package fhirspark;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.client.api.ServerValidationModeEnum;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.OperationOutcome;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Follows the next links of a search result served by a stub FHIR server with three pages. Does not need a FHIR
+ * server.
+ */
+public class SearchPagesTest {
+
+    private static final int PAGES = 3;
+
+    private FhirContext ctx = FhirContext.forR4();
+    private List<String> requests = new CopyOnWriteArrayList<>();
+    private int failingPage;
+    private HttpServer server;
+    private IGenericClient client;
+    private ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @BeforeEach
+    public void prepare() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/fhir", this::handle);
+        server.start();
+        ctx.getRestfulClientFactory().setServerValidationMode(ServerValidationModeEnum.NEVER);
+        client = ctx.newRestfulGenericClient(base());
+    }
+
+    @AfterEach
+    public void stop() {
+        executor.shutdownNow();
+        server.stop(0);
+    }
+
+    @Test
+    public void followsAllNextLinks() {
+        List<String> patients = new ArrayList<>();
+        try (SearchPages pages = new SearchPages(client, page(1), executor)) {
+            pages.forEach(page -> patients.add(page.getEntryFirstRep().getResource().getIdElement().getIdPart()));
+        }
+        assertEquals(List.of("1", "2", "3"), patients);
+        assertEquals(List.of("page=2", "page=3"), requests);
+    }
+
+    @Test
+    public void failureOfAPrefetchedPageIsThrownWhenItIsReached() {
+        failingPage = 2;
+        try (SearchPages pages = new SearchPages(client, page(1), executor)) {
+            Iterator<Bundle> iterator = pages.iterator();
+            assertEquals("1", iterator.next().getEntryFirstRep().getResource().getIdElement().getIdPart());
+            assertTrue(iterator.hasNext());
+            BaseServerResponseException e = assertThrows(BaseServerResponseException.class, iterator::next);
+            assertEquals(500, e.getStatusCode());
+            assertFalse(iterator.hasNext());
+        }
+    }
+
+    @Test
+    public void closingCancelsTheRequestOfTheFollowingPage() {
+        List<Runnable> queued = new ArrayList<>();
+        try (SearchPages pages = new SearchPages(client, page(1), queued::add)) {
+            pages.iterator().next();
+        }
+        assertEquals(1, queued.size());
+        queued.forEach(Runnable::run);
+        assertTrue(requests.isEmpty());
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getQuery();
+        int number = Integer.parseInt(query.replaceFirst(".*page=", ""));
+        requests.add("page=" + number);
+
+        int status = 200;
+        IBaseResource body;
+        if (number == failingPage) {
+            status = 500;
+            OperationOutcome outcome = new OperationOutcome();
+            outcome.addIssue().setDiagnostics("page expired");
+            body = outcome;
+        } else {
+            body = page(number);
+        }
+
+        byte[] bytes = ctx.newJsonParser().encodeResourceToString(body).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/fhir+json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private Bundle page(int number) {
+        Patient patient = new Patient();
+        patient.setId("Patient/" + number);
+        Bundle bundle = new Bundle().setType(Bundle.BundleType.SEARCHSET);
+        bundle.addEntry().setResource(patient);
+        if (number < PAGES) {
+            bundle.addLink().setRelation("next").setUrl(base() + "?_getpages=a&page=" + (number + 1));
+        }
+        return bundle;
+    }
+
+    private String base() {
+        return "http://localhost:" + server.getAddress().getPort() + "/fhir";
+    }
+
+}
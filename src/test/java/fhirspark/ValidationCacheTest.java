@@ -0,0 +1,106 @@
+package fhirspark;
+
+import com.google.common.base.Ticker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks which decisions of cBioPortal are remembered and for how long, with a clock controlled by the test.
+ */
+public class ValidationCacheTest {
+
+    private static final long POSITIVE_TTL = 60;
+    private static final long NEGATIVE_TTL = 5;
+
+    private AtomicLong now = new AtomicLong();
+    private AtomicInteger requests = new AtomicInteger();
+    private ValidationCache cache = new ValidationCache(POSITIVE_TTL, NEGATIVE_TTL, new Ticker() {
+        @Override
+        public long read() {
+            return now.get();
+        }
+    });
+
+    @Test
+    public void hitsAndMissesAreCounted() {
+        assertTrue(cache.validate("s1", "study", "P1", () -> upstream(true)));
+        assertTrue(cache.validate("s1", "study", "P1", () -> upstream(true)));
+        assertFalse(cache.validate("s2", "study", "P1", () -> upstream(false)));
+        assertFalse(cache.validate("s2", "study", "P1", () -> upstream(false)));
+        assertEquals(2, requests.get());
+        assertEquals(2, cache.getMisses());
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void denialsExpireBeforeGrants() {
+        cache.validate("s1", "study", "P1", () -> upstream(true));
+        cache.validate("s2", "study", "P1", () -> upstream(false));
+        advance(NEGATIVE_TTL);
+        assertTrue(cache.validate("s1", "study", "P1", () -> upstream(false)));
+        assertTrue(cache.validate("s2", "study", "P1", () -> upstream(true)));
+        assertEquals(3, requests.get());
+        advance(POSITIVE_TTL);
+        assertFalse(cache.validate("s1", "study", "P1", () -> upstream(false)));
+        assertEquals(4, requests.get());
+    }
+
+    @Test
+    public void missingDecisionIsDeniedButNotRemembered() {
+        assertFalse(cache.validate("s1", "study", "P1", () -> upstream(null)));
+        assertTrue(cache.validate("s1", "study", "P1", () -> upstream(true)));
+        assertEquals(2, requests.get());
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void concurrentRequestsShareOneUpstreamRequest() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch answer = new CountDownLatch(1);
+        CompletableFuture<Boolean> first = CompletableFuture.supplyAsync(() -> cache.validate("s1", "study", "P1",
+                () -> {
+                    started.countDown();
+                    await(answer);
+                    return upstream(true);
+                }));
+        started.await();
+        CompletableFuture<Boolean> second = CompletableFuture.supplyAsync(
+                () -> cache.validate("s1", "study", "P1", () -> upstream(false)));
+        // gives the second request time to wait for the first one
+        Thread.sleep(100);
+        answer.countDown();
+        assertTrue(first.join());
+        assertTrue(second.join());
+        assertEquals(1, requests.get());
+        assertEquals(1, cache.getMisses());
+    }
+
+    private Boolean upstream(Boolean decision) {
+        requests.incrementAndGet();
+        return decision;
+    }
+
+    private void advance(long seconds) {
+        now.addAndGet(TimeUnit.SECONDS.toNanos(seconds));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,127 @@
+package fhirspark.resolver;
+
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+
+import fhirspark.resolver.model.Genenames;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the former HashMap&lt;Integer, Genenames&gt; with the packed HgncIndex.
+ *
+ * Run with: mvn test-compile dependency:build-classpath -Dmdep.includeScope=test -Dmdep.outputFile=cp.txt, then
+ * java -cp target/test-classes:target/classes:$(cat cp.txt) fhirspark.resolver.HgncGeneNameBenchmark
+ * (the forked benchmark VM does not see the classpath of exec:java).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HgncGeneNameBenchmark {
+
+    private static final String HGNC_PATH = "hgnc.csv";
+    private static final int HOT_GENES = 64;
+
+    private Map<Integer, Genenames> hashMap = new HashMap<>();
+    private HgncIndex index;
+    private int[] queries = new int[1024];
+    // few genes queried repeatedly, as in the alterations of real MTBs
+    private int[] hotQueries = new int[1024];
+
+    @Setup
+    public void prepare() throws IOException {
+        Iterator<Genenames> iterator = new CsvMapper().readerFor(Genenames.class)
+                .with(CsvSchema.emptySchema().withHeader().withColumnSeparator('\t'))
+                .readValues(new FileInputStream(HGNC_PATH));
+        while (iterator.hasNext()) {
+            Genenames g = iterator.next();
+            hashMap.put(g.getNcbiGeneId(), g);
+        }
+        HgncGeneName.initialize(HGNC_PATH);
+        index = HgncGeneName.getIndex();
+
+        Random random = new Random(42);
+        for (int i = 0; i < queries.length; i++) {
+            // Mostly known genes, some misses
+            queries[i] = i % 8 == 0 ? -i : index.ncbiGeneId(random.nextInt(index.size()));
+        }
+        for (int i = 0; i < hotQueries.length; i++) {
+            hotQueries[i] = queries[1 + random.nextInt(HOT_GENES) * 8];
+        }
+    }
+
+    @Benchmark
+    public void hashMapLookup(Blackhole bh) {
+        for (int q : queries) {
+            bh.consume(hashMap.get(q));
+        }
+    }
+
+    @Benchmark
+    public void indexLookup(Blackhole bh) {
+        for (int q : queries) {
+            bh.consume(index.indexOf(q));
+        }
+    }
+
+    @Benchmark
+    public void hashMapSymbol(Blackhole bh) {
+        for (int q : queries) {
+            Genenames g = hashMap.get(q);
+            bh.consume(g != null ? g.getApprovedSymbol() : null);
+        }
+    }
+
+    @Benchmark
+    public void indexSymbol(Blackhole bh) {
+        for (int q : queries) {
+            int i = index.indexOf(q);
+            bh.consume(i >= 0 ? index.approvedSymbol(i) : null);
+        }
+    }
+
+    @Benchmark
+    public void hashMapSymbolHot(Blackhole bh) {
+        for (int q : hotQueries) {
+            Genenames g = hashMap.get(q);
+            bh.consume(g != null ? g.getApprovedSymbol() : null);
+        }
+    }
+
+    @Benchmark
+    public void indexSymbolHot(Blackhole bh) {
+        for (int q : hotQueries) {
+            int i = index.indexOf(q);
+            bh.consume(i >= 0 ? index.approvedSymbol(i) : null);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(HgncGeneNameBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
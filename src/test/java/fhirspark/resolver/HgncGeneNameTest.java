@@ -0,0 +1,68 @@
+package fhirspark.resolver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class HgncGeneNameTest {
+
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    void load() throws IOException {
+        Path csv = dir.resolve("hgnc.csv");
+        Files.write(csv, ("HGNC ID\tApproved symbol\tNCBI Gene ID\tPrevious symbols\tAlias symbols\n"
+                + "HGNC:1097\tBRAF\t673\tBRAF1\tB-RAF1, NS7\n"
+                + "HGNC:3430\tERBB2\t2064\tNGL\tNEU, HER-2, CD340, HER2\n"
+                + "HGNC:9999\tNGL\t99999\t\tNS7\n").getBytes(StandardCharsets.UTF_8));
+        HgncGeneName.initialize(csv.toString());
+        // second run restores the index from the snapshot
+        HgncGeneName.initialize(csv.toString());
+    }
+
+    @Test
+    void resolvesApprovedPreviousAndAliasSymbols() {
+        assertEquals(673, HgncGeneName.resolveSymbol("BRAF"));
+        assertEquals(673, HgncGeneName.resolveSymbol("braf1"));
+        assertEquals(2064, HgncGeneName.resolveSymbol(" her2 "));
+        assertEquals(99999, HgncGeneName.resolveSymbol("NGL"));
+        assertNull(HgncGeneName.resolveSymbol("NS7"));
+        assertNull(HgncGeneName.resolveSymbol("KRAS"));
+    }
+
+    @Test
+    void searchListsApprovedSymbolFirst() {
+        assertEquals(2, HgncGeneName.search("ngl").size());
+        assertEquals("NGL", HgncGeneName.search("ngl").get(0).getApprovedSymbol());
+        assertEquals("ERBB2", HgncGeneName.search("ngl").get(1).getApprovedSymbol());
+    }
+
+    @Test
+    void accessorsReturnStringsDecodedAtLoadTime() {
+        assertEquals("BRAF", HgncGeneName.approvedSymbol(673));
+        assertEquals("HGNC:3430", HgncGeneName.hgncId(2064));
+        assertSame(HgncGeneName.approvedSymbol(673), HgncGeneName.approvedSymbol(673));
+        assertSame(HgncGeneName.hgncId(673), HgncGeneName.hgncId(673));
+        assertNull(HgncGeneName.approvedSymbol(675));
+        assertNull(HgncGeneName.hgncId(675));
+    }
+
+    @Test
+    void fixesMissingOrUnknownIds() {
+        assertEquals(673, HgncGeneName.fixNcbiGeneId(null, "BRAF"));
+        assertEquals(2064, HgncGeneName.fixNcbiGeneId(12345, "HER2"));
+        assertEquals(673, HgncGeneName.fixNcbiGeneId(673, "ERBB2"));
+        assertEquals(12345, HgncGeneName.fixNcbiGeneId(12345, "KRAS"));
+    }
+
+}
@@ -0,0 +1,53 @@
+package fhirspark.resolver;
+
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+
+import fhirspark.resolver.model.Genenames;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.openjdk.jol.info.GraphLayout;
+
+/**
+ * Compares the retained heap of the HgncIndex with the former HashMap&lt;Integer, Genenames&gt; over the shipped
+ * HGNC database.
+ */
+public class HgncIndexFootprintTest {
+
+    @Test
+    void indexRetainsFarLessThanTheFormerMap() throws IOException {
+        Iterator<Genenames> iterator = new CsvMapper().readerFor(Genenames.class)
+                .with(CsvSchema.emptySchema().withHeader().withColumnSeparator('\t'))
+                .readValues(new FileInputStream("hgnc.csv"));
+        List<Genenames> genes = new ArrayList<>();
+        Map<Integer, Genenames> hashMap = new HashMap<>();
+        while (iterator.hasNext()) {
+            Genenames g = iterator.next();
+            genes.add(g);
+            hashMap.put(g.getNcbiGeneId(), g);
+        }
+        HgncIndex index = HgncIndex.build(genes);
+        // fills the table of decoded symbols
+        for (int i = 0; i < index.size(); i++) {
+            index.approvedSymbol(i);
+            index.hgncId(i);
+        }
+
+        long mapBytes = GraphLayout.parseInstance(hashMap).totalSize();
+        long indexBytes = GraphLayout.parseInstance(index).totalSize();
+        System.out.println("HGNC genes retain " + mapBytes + " bytes as HashMap and " + indexBytes
+                + " bytes as HgncIndex");
+        assertTrue(indexBytes * 2 < mapBytes);
+    }
+
+}
@@ -0,0 +1,46 @@
+package fhirspark.resolver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import fhirspark.resolver.model.Drug;
+
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+public class OncoKbDrugTest {
+
+    @BeforeAll
+    static void load() {
+        OncoKbDrug.initalize("drugs.json");
+    }
+
+    @Test
+    void resolvesNamesAndSynonymsIgnoringCase() {
+        String ncitCode = OncoKbDrug.resolve("Olaparib").getNcitCode();
+        assertEquals(ncitCode, OncoKbDrug.resolve("OLAPARIB ").getNcitCode());
+        assertEquals(ncitCode, OncoKbDrug.resolve("azd2281").getNcitCode());
+        assertEquals(ncitCode, OncoKbDrug.resolve("uc3x", "foo, AZD-2281").getNcitCode());
+        assertEquals(ncitCode, OncoKbDrug.ncitCode("uc3x", "foo, AZD-2281"));
+        assertNull(OncoKbDrug.ncitCode("uc3x", null));
+    }
+
+    @Test
+    void unknownDrugsShareSentinel() {
+        assertSame(OncoKbDrug.UNKNOWN, OncoKbDrug.resolve("uc3x"));
+        assertSame(OncoKbDrug.UNKNOWN, OncoKbDrug.resolve("uc3x", null));
+    }
+
+    @Test
+    void prefixSearchReturnsDistinctDrugs() {
+        List<Drug> drugs = OncoKbDrug.search("olap", 10);
+        assertEquals(1, drugs.size());
+        assertEquals("Olaparib", drugs.get(0).getDrugName());
+        assertTrue(OncoKbDrug.search("a", 5).size() <= 5);
+    }
+
+}
@@ -0,0 +1,79 @@
+package fhirspark.resolver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.filter.ClientFilter;
+import com.sun.jersey.core.header.InBoundHeaders;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Resolves titles against a stubbed eutils endpoint, so no network access is needed.
+ */
+public class PubmedPublicationTest {
+
+    private static final Pattern IDS = Pattern.compile("id=([0-9,]+)");
+    private static final int CALLERS = 8;
+
+    @Test
+    void concurrentCallersWithUncachedIdsDoNotBlockEachOther() {
+        PubmedPublication resolver = new PubmedPublication(stubClient(), null);
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            List<CompletableFuture<Map<Integer, String>>> results = new ArrayList<>();
+            for (int caller = 0; caller < CALLERS; caller++) {
+                // more than one batch per caller
+                List<Integer> ids = IntStream.range(caller * 1000, caller * 1000 + 250).boxed()
+                        .collect(Collectors.toList());
+                results.add(resolver.resolvePublicationsAsync(ids));
+            }
+            for (int caller = 0; caller < CALLERS; caller++) {
+                Map<Integer, String> titles = results.get(caller).join();
+                assertEquals(250, titles.size());
+                assertEquals("Title " + caller * 1000, titles.get(caller * 1000));
+            }
+        });
+        assertEquals("Title 7", resolver.resolvePublication(7));
+    }
+
+    private static Client stubClient() {
+        Client client = new Client();
+        client.addFilter(new ClientFilter() {
+            @Override
+            public ClientResponse handle(ClientRequest request) {
+                Matcher ids = IDS.matcher(request.getURI().getQuery());
+                ids.find();
+                String result = Arrays.stream(ids.group(1).split(","))
+                        .map(id -> "\"" + id + "\":{\"title\":\"Title " + id + "\"}")
+                        .collect(Collectors.joining(",", "{\"result\":{", "}}"));
+                try {
+                    // keeps the requests of all callers in flight at the same time
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return new ClientResponse(200, new InBoundHeaders(),
+                        new ByteArrayInputStream(result.getBytes(StandardCharsets.UTF_8)),
+                        client.getMessageBodyWorkers());
+            }
+        });
+        return client;
+    }
+
+}
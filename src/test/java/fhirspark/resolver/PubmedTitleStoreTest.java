@@ -0,0 +1,53 @@
+package fhirspark.resolver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Reopens the title store and checks which records are recovered from the file.
+ */
+public class PubmedTitleStoreTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void titlesSurviveReopening() {
+        Path path = directory.resolve("titles");
+        PubmedTitleStore store = new PubmedTitleStore(path);
+        store.put(1, "First title");
+        store.put(2, "Zweiter Titel über Größen");
+
+        PubmedTitleStore reopened = new PubmedTitleStore(path);
+        assertEquals("First title", reopened.get(1));
+        assertEquals("Zweiter Titel über Größen", reopened.get(2));
+        assertNull(reopened.get(3));
+    }
+
+    @Test
+    void corruptRecordAtTheEndIsDiscarded() throws IOException {
+        Path path = directory.resolve("titles");
+        new PubmedTitleStore(path).put(1, "First title");
+        long valid = Files.size(path);
+        ByteBuffer corrupt = ByteBuffer.allocate(8).putInt(2).putInt(-5);
+        Files.write(path, corrupt.array(), StandardOpenOption.APPEND);
+
+        PubmedTitleStore reopened = new PubmedTitleStore(path);
+        assertEquals(valid, Files.size(path));
+        assertEquals("First title", reopened.get(1));
+        assertNull(reopened.get(2));
+
+        reopened.put(2, "Second title");
+        assertEquals("Second title", new PubmedTitleStore(path).get(2));
+    }
+
+}
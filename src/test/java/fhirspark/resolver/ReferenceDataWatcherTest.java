@@ -0,0 +1,40 @@
+package fhirspark.resolver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ReferenceDataWatcherTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void reloadsModifiedGeneFile() throws IOException, InterruptedException {
+        Path csv = dir.resolve("hgnc.csv");
+        Files.write(csv, ("HGNC ID\tApproved symbol\tNCBI Gene ID\n"
+                + "HGNC:1100\tBRCA1\t672\n").getBytes(StandardCharsets.UTF_8));
+        HgncGeneName.initialize(csv.toString());
+        assertNull(HgncGeneName.resolve(675));
+
+        ReferenceDataWatcher watcher = new ReferenceDataWatcher();
+        watcher.watch(csv.toString(), HgncGeneName::initialize);
+        watcher.start();
+        Files.write(csv, "HGNC:1101\tBRCA2\t675\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        for (int i = 0; i < 100 && HgncGeneName.resolve(675) == null; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals("BRCA2", HgncGeneName.resolve(675).getApprovedSymbol());
+        assertEquals("BRCA1", HgncGeneName.resolve(672).getApprovedSymbol());
+    }
+
+}
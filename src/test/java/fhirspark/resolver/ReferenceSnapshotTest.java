@@ -0,0 +1,57 @@
+package fhirspark.resolver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ReferenceSnapshotTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void hgncSnapshotIsReusedUntilSourceChanges() throws IOException {
+        Path csv = dir.resolve("hgnc.csv");
+        Files.write(csv, ("HGNC ID\tApproved symbol\tNCBI Gene ID\n"
+                + "HGNC:5\tA1BG\t1\n"
+                + "HGNC:1100\tBRCA1\t672\n").getBytes(StandardCharsets.UTF_8));
+
+        HgncGeneName.initialize(csv.toString());
+        Path snapshot = ReferenceSnapshot.pathOf(csv);
+        assertTrue(Files.isRegularFile(snapshot));
+
+        HgncGeneName.initialize(csv.toString());
+        assertEquals("BRCA1", HgncGeneName.resolve(672).getApprovedSymbol());
+        assertEquals("HGNC:1100", HgncGeneName.resolve(672).getHgncId());
+        assertNull(HgncGeneName.resolve(675));
+
+        Files.write(csv, "HGNC:1101\tBRCA2\t675\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        HgncGeneName.initialize(csv.toString());
+        assertEquals("BRCA2", HgncGeneName.resolve(675).getApprovedSymbol());
+    }
+
+    @Test
+    void drugSnapshotMatchesJson() throws IOException {
+        Path json = dir.resolve("drugs.json");
+        Files.copy(Paths.get("drugs.json"), json);
+
+        OncoKbDrug.initalize(json.toString());
+        String parsed = OncoKbDrug.resolve("Olaparib").getNcitCode();
+        assertTrue(Files.isRegularFile(ReferenceSnapshot.pathOf(json)));
+
+        OncoKbDrug.initalize(json.toString());
+        assertEquals(parsed, OncoKbDrug.resolve("Olaparib").getNcitCode());
+        assertTrue(OncoKbDrug.resolve("Olaparib").getSynonyms().size() > 0);
+    }
+
+}